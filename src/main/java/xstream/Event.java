@@ -68,7 +68,9 @@ public class Event implements Serializable {
         Object[] values = new Object[_meta.asRecordDef().getNumFields()];
         for (int i = 0; i < values.length; i++) {
             FieldValue f = _record.get(i);
-            if (f.isInteger()) values[i] = f.asInteger().get();
+            if (f == null || f.isNull()) values[i] = null;
+            else if (f.isInteger()) values[i] = f.asInteger().get();
+            else if (f.isLong()) values[i] = f.asLong().get();
             else if (f.isDouble()) values[i] = f.asDouble().get();
             else if (f.isString()) values[i] = f.asString().get();
             else throw new RuntimeException();
@@ -0,0 +1,310 @@
+package xstream;
+
+import static xstream.TimeSeriesSchema.TIMESTAMP;
+
+import oracle.kv.table.FieldDef.Type;
+import oracle.kv.table.RecordDef;
+import oracle.kv.table.RecordValue;
+import xstream.util.Assert;
+
+/**
+ * A reusable batch of events held column by column to be
+ * {@link WritableTimeSeries#write(EventBatch) written} in bulk.
+ * <br>
+ * The timestamps are held in a <code>long[]</code> and each event property
+ * in an array of its database type: <code>double[]</code> for DOUBLE,
+ * <code>int[]</code> for INTEGER, <code>long[]</code> for LONG and
+ * <code>String[]</code> for STRING. The arrays are exposed so that an
+ * application can populate a batch without creating an object per event.
+ * <br>
+ * Usage:
+ * <pre>
+ *   EventBatch batch = series.newEventBatch(1024);
+ *   long[] time = batch.getTimestamps();
+ *   double[] x  = batch.getDoubles("x");
+ *   for (int i = 0; i &lt; n; i++) {
+ *       time[i] = ...; x[i] = ...;
+ *   }
+ *   batch.setSize(n);
+ *   series.write(batch);
+ *   batch.clear();
+ * </pre>
+ *
+ * @author pinaki poddar
+ *
+ */
+public class EventBatch {
+    private final EventMetadata _meta;
+    private final long[] _time;
+    private final Object[] _columns; // null at timestamp position
+    private int _size;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param meta definition of events
+     * @param capacity maximum number of events in this batch
+     */
+    EventBatch(EventMetadata meta, int capacity) {
+        Assert.assertTrue(capacity > 0, new IllegalArgumentException(
+                "batch capacity " + capacity + " must be positive"));
+        _meta = meta;
+        _time = new long[capacity];
+        RecordDef def = meta.asRecordDef();
+        _columns = new Object[def.getNumFields()];
+        for (int i = 0; i < _columns.length; i++) {
+            if (TIMESTAMP.getName().equals(def.getFieldName(i))) continue;
+            _columns[i] = newArray(def.getFieldDef(i).getType(), capacity);
+        }
+    }
+
+    static Object newArray(Type type, int capacity) {
+        switch (type) {
+        case DOUBLE:  return new double[capacity];
+        case INTEGER: return new int[capacity];
+        case LONG:    return new long[capacity];
+        case STRING:  return new String[capacity];
+        default:
+            throw new IllegalArgumentException("batch does not support " + type);
+        }
+    }
+
+    public EventMetadata getEventDefinition() {
+        return _meta;
+    }
+
+    /**
+     * Gets number of events in this batch.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Gets maximum number of events in this batch.
+     */
+    public int capacity() {
+        return _time.length;
+    }
+
+    /**
+     * Sets number of events in this batch after the arrays have been
+     * populated directly.
+     *
+     * @param n number of events
+     */
+    public void setSize(int n) {
+        Assert.assertTrue(n >= 0 && n <= capacity(), new IllegalArgumentException(
+                "batch size " + n + " is not within capacity " + capacity()));
+        _size = n;
+    }
+
+    /**
+     * Adds an event of given timestamp. The values of the event are set
+     * by the index returned.
+     *
+     * @param ts timestamp of the event
+     * @return index of the added event
+     */
+    public int add(long ts) {
+        Assert.assertTrue(_size < capacity(), new IllegalStateException(
+                "batch is full with " + _size + " events"));
+        _time[_size] = ts;
+        return _size++;
+    }
+
+    /**
+     * Removes all events. The arrays are reused.
+     */
+    public void clear() {
+        _size = 0;
+    }
+
+    public boolean isFull() {
+        return _size >= capacity();
+    }
+
+    /**
+     * Gets the timestamps.
+     *
+     * @return the array that holds timestamps of this batch
+     */
+    public long[] getTimestamps() {
+        return _time;
+    }
+
+    public double[] getDoubles(String property) {
+        return (double[])getColumn(property, Type.DOUBLE);
+    }
+
+    public int[] getInts(String property) {
+        return (int[])getColumn(property, Type.INTEGER);
+    }
+
+    public long[] getLongs(String property) {
+        return (long[])getColumn(property, Type.LONG);
+    }
+
+    public String[] getStrings(String property) {
+        return (String[])getColumn(property, Type.STRING);
+    }
+
+    public void setDouble(int row, int position, double value) {
+        ((double[])_columns[position])[row] = value;
+    }
+
+    public void setInt(int row, int position, int value) {
+        ((int[])_columns[position])[row] = value;
+    }
+
+    public void setLong(int row, int position, long value) {
+        ((long[])_columns[position])[row] = value;
+    }
+
+    public void setString(int row, int position, String value) {
+        ((String[])_columns[position])[row] = value;
+    }
+
+    /**
+     * Sorts events of this batch by timestamp. Events of equal timestamp
+     * keep their order.
+     */
+    public void sort() {
+        if (isOrdered(0, _size)) return;
+        int[] order = new int[_size];
+        for (int i = 0; i < _size; i++) order[i] = i;
+        mergeSort(order, new int[_size], 0, _size);
+
+        long[] time = new long[_size];
+        for (int i = 0; i < _size; i++) time[i] = _time[order[i]];
+        System.arraycopy(time, 0, _time, 0, _size);
+        for (Object column : _columns) {
+            if (column != null) permute(column, order, _size);
+        }
+    }
+
+    /**
+     * Rearranges first n values of given array such that i-th value is
+     * the value at order[i].
+     */
+    static void permute(Object column, int[] order, int n) {
+        if (column instanceof double[]) {
+            double[] a = (double[])column;
+            double[] b = new double[n];
+            for (int i = 0; i < n; i++) b[i] = a[order[i]];
+            System.arraycopy(b, 0, a, 0, n);
+        } else if (column instanceof int[]) {
+            int[] a = (int[])column;
+            int[] b = new int[n];
+            for (int i = 0; i < n; i++) b[i] = a[order[i]];
+            System.arraycopy(b, 0, a, 0, n);
+        } else if (column instanceof long[]) {
+            long[] a = (long[])column;
+            long[] b = new long[n];
+            for (int i = 0; i < n; i++) b[i] = a[order[i]];
+            System.arraycopy(b, 0, a, 0, n);
+        } else {
+            Object[] a = (Object[])column;
+            Object[] b = new Object[n];
+            for (int i = 0; i < n; i++) b[i] = a[order[i]];
+            System.arraycopy(b, 0, a, 0, n);
+        }
+    }
+
+    private void mergeSort(int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) return;
+        int mid = (from + to) >>> 1;
+        mergeSort(order, buffer, from, mid);
+        mergeSort(order, buffer, mid, to);
+        if (_time[order[mid-1]] <= _time[order[mid]]) return;
+        System.arraycopy(order, from, buffer, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            order[k++] = _time[buffer[j]] < _time[buffer[i]] ? buffer[j++] : buffer[i++];
+        }
+        while (i < mid) order[k++] = buffer[i++];
+        while (j < to)  order[k++] = buffer[j++];
+    }
+
+    /**
+     * Gets the array of values at given property position.
+     *
+     * @return null at timestamp position
+     */
+    Object getColumn(int position) {
+        return _columns[position];
+    }
+
+    /**
+     * Builds an event at given index.
+     */
+    Event toEvent(int row) {
+        RecordDef def = _meta.asRecordDef();
+        RecordValue record = def.createRecord();
+        record.put(TIMESTAMP.getName(), _time[row]);
+        for (int p = 0; p < _columns.length; p++) {
+            Object column = _columns[p];
+            if (column == null) continue;
+            String name = def.getFieldName(p);
+            if (column instanceof double[]) {
+                record.put(name, ((double[])column)[row]);
+            } else if (column instanceof int[]) {
+                record.put(name, ((int[])column)[row]);
+            } else if (column instanceof long[]) {
+                record.put(name, ((long[])column)[row]);
+            } else {
+                String s = ((String[])column)[row];
+                if (s == null) {
+                    record.putNull(name);
+                } else {
+                    record.put(name, s);
+                }
+            }
+        }
+        return _meta.newEvent(record);
+    }
+
+    /**
+     * Estimates the number of bytes the event at given row takes in a 
+     * database record, as {@link EventColumns#byteSize(int)} does.
+     */
+    int byteSize(int row) {
+        int size = EventColumns.TIMESTAMP_SIZE;
+        for (Object column : _columns) {
+            if (column == null) continue;
+            if (column instanceof double[] || column instanceof long[]) {
+                size += 8;
+            } else if (column instanceof int[]) {
+                size += 4;
+            } else {
+                size += EventColumns.byteSize(((String[])column)[row]);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Affirms if timestamps of given range of events are non-decreasing.
+     */
+    boolean isOrdered(int from, int n) {
+        for (int i = from + 1; i < from + n; i++) {
+            if (_time[i] < _time[i-1]) return false;
+        }
+        return true;
+    }
+
+    private Object getColumn(String property, Type type) {
+        RecordDef def = _meta.asRecordDef();
+        int position = def.getFieldNames().indexOf(property);
+        if (position < 0 || _columns[position] == null) {
+            throw new IllegalArgumentException("property [" + property
+                    + "] does not exist in " + def.getFieldNames());
+        }
+        Type actual = def.getFieldDef(position).getType();
+        if (actual != type) {
+            throw new IllegalArgumentException("property [" + property
+                    + "] is " + actual + " not " + type);
+        }
+        return _columns[position];
+    }
+}
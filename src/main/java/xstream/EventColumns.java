@@ -0,0 +1,649 @@
+package xstream;
+
+import static xstream.TimeSeriesSchema.TIMESTAMP;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import oracle.kv.table.ArrayValue;
+import oracle.kv.table.FieldDef.Type;
+import oracle.kv.table.FieldValue;
+import oracle.kv.table.RecordDef;
+import oracle.kv.table.RecordValue;
+import xstream.util.Assert;
+
+/**
+ * In-memory events of a {@link Slot} stored column by column.
+ * <br>
+ * Timestamps are held in a <code>long[]</code>. Each numeric event
+ * property is held in a primitive array of its database type, and each
+ * string property is held as integer codes into a dictionary of distinct
+ * values. An {@link Event} is built from the columns only when it is
+ * asked for.
+ * <br>
+ * A column is addressed by the position of the property in the
+ * {@link EventMetadata#asRecordDef() event definition}.
+ *
+ * @author pinaki poddar
+ *
+ */
+class EventColumns {
+    private final EventMetadata _meta;
+    private final int _timePosition;
+    private final Column[] _columns; // null at timestamp position
+    private final Projection _projection; // null if all properties
+    private long[] _time;
+    private int _size;
+
+    static final int DEFAULT_CAPACITY = 16;
+    // estimated bytes of values in a database record
+    static final int TIMESTAMP_SIZE = 8;
+    static final int NULL_SIZE = 1;
+    static final int VALUE_SIZE = 16;
+    
+    static int byteSize(String s) {
+        return s == null ? NULL_SIZE : 4 + s.length();
+    }
+
+    /**
+     * Creates empty columns for events of given definition.
+     *
+     * @param meta definition of events
+     * @param capacity initial number of events that can be held without
+     * growing the columns
+     */
+    EventColumns(EventMetadata meta, int capacity) {
+        this(meta, capacity, null);
+    }
+
+    /**
+     * Creates empty columns for projected properties of events.
+     *
+     * @param meta definition of events
+     * @param capacity initial number of events that can be held without
+     * growing the columns
+     * @param projection properties that have a column. null for all.
+     */
+    EventColumns(EventMetadata meta, int capacity, Projection projection) {
+        _meta = meta;
+        _projection = projection;
+        RecordDef def = meta.asRecordDef();
+        _timePosition = def.getFieldNames().indexOf(TIMESTAMP.getName());
+        int n = Math.max(1, capacity);
+        _time = new long[n];
+        _columns = new Column[def.getNumFields()];
+        for (int i = 0; i < _columns.length; i++) {
+            if (i == _timePosition) continue;
+            if (projection != null && !projection.includes(i)) continue;
+            _columns[i] = newColumn(def.getFieldName(i),
+                    def.getFieldDef(i).getType(), n);
+        }
+    }
+
+    /**
+     * Creates columns populated from an array of database records.
+     *
+     * @param meta definition of events
+     * @param array array of event records as stored in a slot
+     */
+    EventColumns(EventMetadata meta, ArrayValue array) {
+        this(meta, array, null);
+    }
+
+    /**
+     * Creates columns of projected properties populated from an array of
+     * database records.
+     *
+     * @param meta definition of events
+     * @param array array of event records as stored in a slot
+     * @param projection properties that have a column. null for all.
+     */
+    EventColumns(EventMetadata meta, ArrayValue array, Projection projection) {
+        this(meta, array.size(), projection);
+        for (int i = 0; i < array.size(); i++) {
+            add(array.get(i).asRecord());
+        }
+    }
+
+    static Column newColumn(String name, Type type, int capacity) {
+        switch (type) {
+        case DOUBLE:  return new DoubleColumn(name, capacity);
+        case INTEGER: return new IntColumn(name, capacity);
+        case LONG:    return new LongColumn(name, capacity);
+        case STRING:  return new StringColumn(name, capacity);
+        default:      return new ValueColumn(name, capacity);
+        }
+    }
+
+    EventMetadata getEventDefinition() {
+        return _meta;
+    }
+
+    /**
+     * Gets the properties that have a column.
+     *
+     * @return null if all properties have a column
+     */
+    Projection getProjection() {
+        return _projection;
+    }
+
+    /**
+     * Gets number of events.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Gets timestamp of the event at given index.
+     */
+    long getTimestamp(int i) {
+        checkIndex(i);
+        return _time[i];
+    }
+
+    /**
+     * Gets the column at given property position.
+     *
+     * @param position position of an event property.
+     * @return null for the timestamp position and for a property that is
+     * not projected
+     */
+    Column getColumn(int position) {
+        return _columns[position];
+    }
+
+    int getTimestampPosition() {
+        return _timePosition;
+    }
+
+    /**
+     * Gets the array that holds timestamps. The array may be longer than
+     * the number of events.
+     */
+    long[] getTimestamps() {
+        return _time;
+    }
+
+    /**
+     * Sets number of events, growing the columns if necessary. The values
+     * of added events are set directly in the columns.
+     */
+    void resize(int n) {
+        ensureCapacity(n);
+        _size = n;
+    }
+
+    /**
+     * Appends an event record.
+     */
+    void add(RecordValue record) {
+        insert(_size, record);
+    }
+
+    /**
+     * Inserts an event record at given index. Events at and after the
+     * index are shifted.
+     *
+     * @param i index where the event is inserted
+     * @param record an event record
+     */
+    void insert(int i, RecordValue record) {
+        Assert.assertTrue(i >= 0 && i <= _size, new IndexOutOfBoundsException(
+                "can not insert at " + i + " in " + _size + " events"));
+        ensureCapacity(_size + 1);
+        if (i < _size) {
+            System.arraycopy(_time, i, _time, i+1, _size-i);
+            for (Column c : _columns) {
+                if (c != null) c.shift(i, _size);
+            }
+        }
+        FieldValue t = record.get(_timePosition);
+        _time[i] = t == null || t.isNull() ? TimeSeries.UNDEFINED_TIMESTAMP : t.asLong().get();
+        for (int p = 0; p < _columns.length; p++) {
+            if (_columns[p] == null) continue;
+            _columns[p].set(i, record.get(p));
+        }
+        _size++;
+    }
+
+    /**
+     * Appends a range of events of a batch. The values are copied array to
+     * array.
+     *
+     * @param batch a batch of events of same definition
+     * @param from index of first event in the batch
+     * @param n number of events to append
+     */
+    void append(EventBatch batch, int from, int n) {
+        ensureCapacity(_size + n);
+        System.arraycopy(batch.getTimestamps(), from, _time, _size, n);
+        for (int p = 0; p < _columns.length; p++) {
+            if (_columns[p] == null) continue;
+            _columns[p].copy(batch.getColumn(p), from, _size, n);
+        }
+        _size += n;
+    }
+
+    /**
+     * Inserts an event of a batch at given index. Events at and after the
+     * index are shifted.
+     *
+     * @param i index where the event is inserted
+     * @param batch a batch of events of same definition
+     * @param row index of the event in the batch
+     */
+    void insert(int i, EventBatch batch, int row) {
+        Assert.assertTrue(i >= 0 && i <= _size, new IndexOutOfBoundsException(
+                "can not insert at " + i + " in " + _size + " events"));
+        ensureCapacity(_size + 1);
+        if (i < _size) {
+            System.arraycopy(_time, i, _time, i+1, _size-i);
+            for (Column c : _columns) {
+                if (c != null) c.shift(i, _size);
+            }
+        }
+        _time[i] = batch.getTimestamps()[row];
+        for (int p = 0; p < _columns.length; p++) {
+            if (_columns[p] == null) continue;
+            _columns[p].copy(batch.getColumn(p), row, i, 1);
+        }
+        _size++;
+    }
+
+    /**
+     * Sets the timestamps of all events at a regular interval.
+     *
+     * @param first timestamp of the first event
+     * @param interval interval between consecutive events
+     */
+    void setUniformTimestamps(long first, long interval) {
+        for (int i = 0; i < _size; i++) {
+            _time[i] = first + i*interval;
+        }
+    }
+
+    /**
+     * Builds a database record of the event at given index.
+     */
+    RecordValue toRecord(int i) {
+        return toRecord(i, true);
+    }
+
+    private RecordValue toRecord(int i, boolean withTimestamp) {
+        checkIndex(i);
+        RecordValue record = _meta.asRecordDef().createRecord();
+        if (withTimestamp) {
+            record.put(TIMESTAMP.getName(), _time[i]);
+        } else {
+            record.putNull(TIMESTAMP.getName());
+        }
+        for (int p = 0; p < _columns.length; p++) {
+            if (_columns[p] != null) {
+                _columns[p].put(i, record);
+            } else if (p != _timePosition) {
+                record.putNull(_meta.asRecordDef().getFieldName(p));
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Estimates the number of bytes the event at given index takes in a 
+     * database record. 
+     */
+    int byteSize(int i) {
+        checkIndex(i);
+        int size = TIMESTAMP_SIZE;
+        for (Column c : _columns) {
+            if (c != null) size += c.byteSize(i);
+        }
+        return size;
+    }
+
+    /**
+     * Builds an event at given index.
+     */
+    Event getEvent(int i) {
+        return _meta.newEvent(toRecord(i));
+    }
+
+    /**
+     * Adds all events as records to given database array.
+     */
+    void addTo(ArrayValue array) {
+        addTo(array, true);
+    }
+
+    /**
+     * Adds all events as records to given database array with or without
+     * their timestamps.
+     */
+    void addTo(ArrayValue array, boolean withTimestamps) {
+        for (int i = 0; i < _size; i++) {
+            array.add(toRecord(i, withTimestamps));
+        }
+    }
+
+    /**
+     * Finds the index of the first event at or after given time.
+     *
+     * @param t a timestamp
+     * @return index of the first event whose timestamp is not earlier
+     * than t
+     */
+    int lowerBound(long t) {
+        int lo = 0;
+        int hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_time[mid] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Finds the index where an event of given timestamp would be inserted
+     * to keep the events in temporal order. Events of equal timestamp keep
+     * their order of insertion.
+     *
+     * @param t a timestamp
+     * @return index of the first event whose timestamp is later than t
+     */
+    int insertionPoint(long t) {
+        int lo = 0;
+        int hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_time[mid] <= t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= _time.length) return;
+        int capacity = Math.max(n, _time.length * 2);
+        _time = Arrays.copyOf(_time, capacity);
+        for (Column c : _columns) {
+            if (c != null) c.grow(capacity);
+        }
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= _size) {
+            throw new IndexOutOfBoundsException("event index " + i
+                    + " is not in range [0," + _size + ")");
+        }
+    }
+
+    /**
+     * Values of an event property for all events.
+     *
+     */
+    static abstract class Column {
+        final String _name;
+        final BitSet _nulls = new BitSet();
+
+        Column(String name) {
+            _name = name;
+        }
+
+        String getName() {
+            return _name;
+        }
+
+        boolean isNull(int i) {
+            return _nulls.get(i);
+        }
+
+        void set(int i, FieldValue value) {
+            if (value == null || value.isNull()) {
+                _nulls.set(i);
+            } else {
+                _nulls.clear(i);
+                setValue(i, value);
+            }
+        }
+
+        void put(int i, RecordValue record) {
+            if (_nulls.get(i)) {
+                record.putNull(_name);
+            } else {
+                putValue(i, record);
+            }
+        }
+
+        void shift(int from, int size) {
+            move(from, size);
+            for (int j = size; j > from; j--) {
+                _nulls.set(j, _nulls.get(j-1));
+            }
+        }
+
+        /**
+         * Copies values from an array of a batch.
+         *
+         * @param src array of values of the same type as this column
+         * @param from index of first value in source array
+         * @param to index of first value in this column
+         * @param n number of values to copy
+         */
+        void copy(Object src, int from, int to, int n) {
+            _nulls.clear(to, to + n);
+            copyValues(src, from, to, n);
+        }
+
+        int byteSize(int i) {
+            return _nulls.get(i) ? NULL_SIZE : valueSize(i);
+        }
+
+        abstract int valueSize(int i);
+        abstract void setValue(int i, FieldValue value);
+        abstract void putValue(int i, RecordValue record);
+        abstract void copyValues(Object src, int from, int to, int n);
+        // moves values in [from, size) by one position to the right
+        abstract void move(int from, int size);
+        abstract void grow(int capacity);
+    }
+
+    static class DoubleColumn extends Column {
+        double[] _values;
+        DoubleColumn(String name, int capacity) {
+            super(name);
+            _values = new double[capacity];
+        }
+        double get(int i) {
+            return _values[i];
+        }
+        int valueSize(int i) {
+            return 8;
+        }
+        void setValue(int i, FieldValue value) {
+            _values[i] = value.asDouble().get();
+        }
+        void copyValues(Object src, int from, int to, int n) {
+            System.arraycopy(src, from, _values, to, n);
+        }
+        void putValue(int i, RecordValue record) {
+            record.put(_name, _values[i]);
+        }
+        void move(int from, int size) {
+            System.arraycopy(_values, from, _values, from+1, size-from);
+        }
+        void grow(int capacity) {
+            _values = Arrays.copyOf(_values, capacity);
+        }
+    }
+
+    static class IntColumn extends Column {
+        int[] _values;
+        IntColumn(String name, int capacity) {
+            super(name);
+            _values = new int[capacity];
+        }
+        int get(int i) {
+            return _values[i];
+        }
+        int valueSize(int i) {
+            return 4;
+        }
+        void setValue(int i, FieldValue value) {
+            _values[i] = value.asInteger().get();
+        }
+        void copyValues(Object src, int from, int to, int n) {
+            System.arraycopy(src, from, _values, to, n);
+        }
+        void putValue(int i, RecordValue record) {
+            record.put(_name, _values[i]);
+        }
+        void move(int from, int size) {
+            System.arraycopy(_values, from, _values, from+1, size-from);
+        }
+        void grow(int capacity) {
+            _values = Arrays.copyOf(_values, capacity);
+        }
+    }
+
+    static class LongColumn extends Column {
+        long[] _values;
+        LongColumn(String name, int capacity) {
+            super(name);
+            _values = new long[capacity];
+        }
+        long get(int i) {
+            return _values[i];
+        }
+        int valueSize(int i) {
+            return 8;
+        }
+        void setValue(int i, FieldValue value) {
+            _values[i] = value.asLong().get();
+        }
+        void copyValues(Object src, int from, int to, int n) {
+            System.arraycopy(src, from, _values, to, n);
+        }
+        void putValue(int i, RecordValue record) {
+            record.put(_name, _values[i]);
+        }
+        void move(int from, int size) {
+            System.arraycopy(_values, from, _values, from+1, size-from);
+        }
+        void grow(int capacity) {
+            _values = Arrays.copyOf(_values, capacity);
+        }
+    }
+
+    /**
+     * Strings are coded as index into a dictionary of distinct values.
+     */
+    static class StringColumn extends Column {
+        int[] _codes;
+        final List<String> _dictionary = new ArrayList<String>();
+        final Map<String, Integer> _lookup = new HashMap<String, Integer>();
+
+        StringColumn(String name, int capacity) {
+            super(name);
+            _codes = new int[capacity];
+        }
+        String get(int i) {
+            return _dictionary.get(_codes[i]);
+        }
+        int getCode(int i) {
+            return _codes[i];
+        }
+        /**
+         * Gets the code of given string.
+         * @return -1 if given string does not appear in this column
+         */
+        int codeOf(String s) {
+            Integer code = _lookup.get(s);
+            return code == null ? -1 : code;
+        }
+        int encode(String s) {
+            Integer code = _lookup.get(s);
+            if (code == null) {
+                code = _dictionary.size();
+                _dictionary.add(s);
+                _lookup.put(s, code);
+            }
+            return code;
+        }
+        int valueSize(int i) {
+            return EventColumns.byteSize(get(i));
+        }
+        void setValue(int i, FieldValue value) {
+            _codes[i] = encode(value.asString().get());
+        }
+        void copy(Object src, int from, int to, int n) {
+            String[] values = (String[])src;
+            for (int j = 0; j < n; j++) {
+                String s = values[from + j];
+                if (s == null) {
+                    _nulls.set(to + j);
+                } else {
+                    _nulls.clear(to + j);
+                    _codes[to + j] = encode(s);
+                }
+            }
+        }
+        void copyValues(Object src, int from, int to, int n) {
+            String[] values = (String[])src;
+            for (int j = 0; j < n; j++) {
+                _codes[to + j] = encode(values[from + j]);
+            }
+        }
+        void putValue(int i, RecordValue record) {
+            record.put(_name, get(i));
+        }
+        void move(int from, int size) {
+            System.arraycopy(_codes, from, _codes, from+1, size-from);
+        }
+        void grow(int capacity) {
+            _codes = Arrays.copyOf(_codes, capacity);
+        }
+    }
+
+    /**
+     * Holds database values of types that have no primitive column.
+     */
+    static class ValueColumn extends Column {
+        FieldValue[] _values;
+        ValueColumn(String name, int capacity) {
+            super(name);
+            _values = new FieldValue[capacity];
+        }
+        int valueSize(int i) {
+            return VALUE_SIZE;
+        }
+        void setValue(int i, FieldValue value) {
+            _values[i] = value;
+        }
+        void copyValues(Object src, int from, int to, int n) {
+            // a batch is not created for events with such a property
+            throw new AssertionError("property " + _name
+                    + " can not be copied from a batch");
+        }
+        void putValue(int i, RecordValue record) {
+            record.put(_name, _values[i]);
+        }
+        void move(int from, int size) {
+            System.arraycopy(_values, from, _values, from+1, size-from);
+        }
+        void grow(int capacity) {
+            _values = Arrays.copyOf(_values, capacity);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package xstream;
+
+import java.util.Iterator;
+import java.util.List;
+
+import xstream.EventColumns.Column;
+import xstream.EventColumns.DoubleColumn;
+import xstream.EventColumns.IntColumn;
+import xstream.EventColumns.LongColumn;
+import xstream.EventColumns.StringColumn;
+
+/**
+ * A cursor over events of a series that reads values directly from the
+ * columns of slots.
+ * <br>
+ * Unlike an iterator of {@link Event events}, a cursor does not create an
+ * object for each event. The cursor is positioned on an event by
+ * {@link #next()}, and the values of that event are read by the cursor
+ * itself until it is moved.
+ * <pre>
+ *   EventCursor cursor = series.cursor(start, end);
+ *   EventField.DoubleField speed = series.getEventDefinition().doubleField("speed");
+ *   while (cursor.next()) {
+ *       total += cursor.getDouble(speed);
+ *   }
+ * </pre>
+ * Values are accessed by property name or, faster, by
+ * {@link EventField handle}. Slots are fetched as the cursor moves, a
+ * {@link ReadableTimeSeries#setReadAhead(int) few} ahead of the cursor. Events
+ * of slots of different write shards are merged in temporal order.
+ * <br>
+ * A cursor created for some properties decodes the values of those
+ * properties only, and can not read other properties.
+ * <br>
+ * A cursor is not thread-safe.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class EventCursor {
+    private final TimeSeries _series;
+    private final EventMetadata _meta;
+    private final Lane[] _lanes;
+    private final Projection _projection; // null if all properties
+    // lane of the current event. null before first and after last event
+    private Lane _current;
+    private boolean _started;
+
+    /**
+     * Creates a cursor over slots of given series.
+     *
+     * @param series a series
+     * @param shards indices of slots of each write shard in temporal order
+     * @param startTime timestamp of the first event, inclusive
+     * @param endTime timestamp of the last event, inclusive
+     * @param projection properties to be read. null for all.
+     * @param readAhead number of slots of each shard fetched ahead
+     */
+    EventCursor(TimeSeries series, List<? extends Iterable<Integer>> shards,
+            long startTime, long endTime, Projection projection, int readAhead) {
+        _series = series;
+        _projection = projection;
+        _meta = series.getEventDefinition();
+        _lanes = new Lane[shards.size()];
+        for (int i = 0; i < _lanes.length; i++) {
+            _lanes[i] = new Lane(new SlotPrefetcher(series, shards.get(i).iterator(),
+                    projection, readAhead), startTime, endTime);
+        }
+    }
+
+    /**
+     * Moves this cursor to the next event.
+     *
+     * @return false if there is no more event
+     */
+    public boolean next() {
+        if (!_started) {
+            _started = true;
+            for (Lane lane : _lanes) {
+                lane.advance();
+            }
+        } else if (_current != null) {
+            _current.advance();
+        } else {
+            return false;
+        }
+        _current = null;
+        for (Lane lane : _lanes) {
+            if (lane._columns == null) continue;
+            if (_current == null || lane.getTimestamp() < _current.getTimestamp()) {
+                _current = lane;
+            }
+        }
+        return _current != null;
+    }
+
+    public long getTimestamp() {
+        return current().getTimestamp();
+    }
+
+    public boolean isNull(String property) {
+        return isNull(position(property));
+    }
+
+    public boolean isNull(EventField field) {
+        return isNull(field._position);
+    }
+
+    public double getDouble(String property) {
+        return getDouble(position(property));
+    }
+
+    public double getDouble(EventField.DoubleField field) {
+        return getDouble(field._position);
+    }
+
+    public int getInt(String property) {
+        return getInt(position(property));
+    }
+
+    public int getInt(EventField.IntField field) {
+        return getInt(field._position);
+    }
+
+    public long getLong(String property) {
+        return getLong(position(property));
+    }
+
+    public long getLong(EventField.LongField field) {
+        return getLong(field._position);
+    }
+
+    /**
+     * Gets the value of a STRING property. The value is shared by all
+     * events of a slot with the same value.
+     */
+    public String getString(String property) {
+        return getString(position(property));
+    }
+
+    public String getString(EventField.StringField field) {
+        return getString(field._position);
+    }
+
+    /**
+     * Builds the current event. Creates an object.
+     */
+    public Event getEvent() {
+        Lane lane = current();
+        return lane._columns.getEvent(lane._pos);
+    }
+
+    private boolean isNull(int position) {
+        Lane lane = current();
+        Column column = lane._columns.getColumn(position);
+        if (column == null && position != lane._columns.getTimestampPosition()) {
+            throw new IllegalArgumentException("property at " + position 
+                    + " of " + _meta.getPropertyNames() + " is not in " + _projection);
+        }
+        return column != null && column.isNull(lane._pos);
+    }
+
+    private double getDouble(int position) {
+        Lane lane = current();
+        return ((DoubleColumn)column(lane, position, DoubleColumn.class)).get(lane._pos);
+    }
+
+    private int getInt(int position) {
+        Lane lane = current();
+        return ((IntColumn)column(lane, position, IntColumn.class)).get(lane._pos);
+    }
+
+    private long getLong(int position) {
+        Lane lane = current();
+        return ((LongColumn)column(lane, position, LongColumn.class)).get(lane._pos);
+    }
+
+    private String getString(int position) {
+        Lane lane = current();
+        Column column = column(lane, position, StringColumn.class);
+        return column.isNull(lane._pos) ? null : ((StringColumn)column).get(lane._pos);
+    }
+
+    private Column column(Lane lane, int position, Class<? extends Column> type) {
+        Column column = lane._columns.getColumn(position);
+        if (!type.isInstance(column)) {
+            throw new IllegalArgumentException("property at " + position
+                    + " of " + _meta.getPropertyNames() + " can not be read as "
+                    + type.getSimpleName());
+        }
+        return column;
+    }
+
+    private int position(String property) {
+        int position = _meta.getPropertyNames().indexOf(property);
+        if (position < 0) {
+            throw new IllegalArgumentException("property [" + property
+                    + "] does not exist in " + _meta.getPropertyNames());
+        }
+        return position;
+    }
+
+    private Lane current() {
+        if (_current == null) {
+            throw new IllegalStateException("cursor is not positioned on an event."
+                    + " Call next() and check that it returns true");
+        }
+        return _current;
+    }
+
+    public String toString() {
+        return "EventCursor[" + _series.getName() + "]";
+    }
+
+    /**
+     * Events of the slots of one write shard.
+     */
+    private class Lane {
+        final Iterator<Slot> _slots;
+        final long _startTime;
+        final long _endTime;
+        // columns of current slot. null when the slots are exhausted
+        EventColumns _columns;
+        int _pos;
+        int _end;
+
+        Lane(Iterator<Slot> slots, long startTime, long endTime) {
+            _slots = slots;
+            _startTime = startTime;
+            _endTime = endTime;
+        }
+
+        long getTimestamp() {
+            return _columns.getTimestamp(_pos);
+        }
+
+        /**
+         * Moves to next event, fetching slots as necessary.
+         */
+        void advance() {
+            _pos++;
+            while (_columns == null || _pos >= _end) {
+                if (!_slots.hasNext()) {
+                    _columns = null;
+                    return;
+                }
+                Slot slot = _slots.next();
+                if (slot == null) continue;
+                _columns = slot.getEvents();
+                _pos = slot.startIndex(_startTime);
+                _end = slot.endIndex(_endTime);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package xstream;
+
+import java.io.Serializable;
+
+import oracle.kv.table.FieldDef.Type;
+import oracle.kv.table.FieldValue;
+import oracle.kv.table.RecordDef;
+
+/**
+ * A handle to a property of {@link Event events} of a definition.
+ * <br>
+ * A handle is resolved once by name from an {@link EventMetadata event
+ * definition} and then accesses the property by its position. The typed
+ * handles get and set values of primitive type without boxing or parsing.
+ * <pre>
+ *   EventField.DoubleField speed = meta.doubleField("speed");
+ *   for (Event e : events) {
+ *       total += speed.getDouble(e);
+ *   }
+ * </pre>
+ *
+ * @author pinaki poddar
+ *
+ */
+@SuppressWarnings("serial")
+public abstract class EventField implements Serializable {
+    final String _name;
+    final int _position;
+
+    EventField(EventMetadata meta, String name, Type type) {
+        RecordDef def = meta.asRecordDef();
+        int position = def.getFieldNames().indexOf(name);
+        if (position < 0) {
+            throw new IllegalArgumentException("property [" + name
+                    + "] does not exist in " + def.getFieldNames());
+        }
+        Type actual = def.getFieldDef(position).getType();
+        if (actual != type) {
+            throw new IllegalArgumentException("property [" + name
+                    + "] is " + actual + " not " + type);
+        }
+        _name = name;
+        _position = position;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Gets position of this property in the event definition.
+     */
+    public int getPosition() {
+        return _position;
+    }
+
+    /**
+     * Affirms if the given event has no value for this property.
+     */
+    public boolean isNull(Event event) {
+        FieldValue value = event.getRecord().get(_position);
+        return value == null || value.isNull();
+    }
+
+    public String toString() {
+        return _name + "@" + _position;
+    }
+
+    public static final class DoubleField extends EventField {
+        DoubleField(EventMetadata meta, String name) {
+            super(meta, name, Type.DOUBLE);
+        }
+
+        public double getDouble(Event event) {
+            return event.getRecord().get(_position).asDouble().get();
+        }
+
+        public void setDouble(Event event, double value) {
+            event.getRecord().put(_name, value);
+        }
+    }
+
+    public static final class IntField extends EventField {
+        IntField(EventMetadata meta, String name) {
+            super(meta, name, Type.INTEGER);
+        }
+
+        public int getInt(Event event) {
+            return event.getRecord().get(_position).asInteger().get();
+        }
+
+        public void setInt(Event event, int value) {
+            event.getRecord().put(_name, value);
+        }
+    }
+
+    public static final class LongField extends EventField {
+        LongField(EventMetadata meta, String name) {
+            super(meta, name, Type.LONG);
+        }
+
+        public long getLong(Event event) {
+            return event.getRecord().get(_position).asLong().get();
+        }
+
+        public void setLong(Event event, long value) {
+            event.getRecord().put(_name, value);
+        }
+    }
+
+    public static final class StringField extends EventField {
+        StringField(EventMetadata meta, String name) {
+            super(meta, name, Type.STRING);
+        }
+
+        public String getString(Event event) {
+            FieldValue value = event.getRecord().get(_position);
+            return value.isNull() ? null : value.asString().get();
+        }
+
+        public void setString(Event event, String value) {
+            if (value == null) {
+                event.getRecord().putNull(_name);
+            } else {
+                event.getRecord().put(_name, value);
+            }
+        }
+    }
+}
@@ -71,6 +71,45 @@ public class EventMetadata implements Serializable {
         return _schema.getFieldNames();
     }
     
+    /**
+     * Gets a handle to a DOUBLE property.
+     * 
+     * @param propertyName name of a property
+     * @return a handle that accesses the property by position
+     * @exception IllegalArgumentException if the property is not defined
+     * or is not DOUBLE
+     */
+    public EventField.DoubleField doubleField(String propertyName) {
+        return new EventField.DoubleField(this, propertyName);
+    }
+    
+    /**
+     * Gets a handle to an INTEGER property.
+     * 
+     * @see #doubleField(String)
+     */
+    public EventField.IntField intField(String propertyName) {
+        return new EventField.IntField(this, propertyName);
+    }
+    
+    /**
+     * Gets a handle to a LONG property.
+     * 
+     * @see #doubleField(String)
+     */
+    public EventField.LongField longField(String propertyName) {
+        return new EventField.LongField(this, propertyName);
+    }
+    
+    /**
+     * Gets a handle to a STRING property.
+     * 
+     * @see #doubleField(String)
+     */
+    public EventField.StringField stringField(String propertyName) {
+        return new EventField.StringField(this, propertyName);
+    }
+    
     /**
      * Creates a new event from user values.
      * @param values the map contains field values indexed by field name.
@@ -166,21 +205,33 @@ public class EventMetadata implements Serializable {
         public class IntegerValue implements Converter {
             @Override
             public void set(String propertyName, RecordValue record, Object userValue) {
-                record.put(propertyName, Integer.parseInt(userValue.toString()));
+                if (userValue instanceof Integer) {
+                    record.put(propertyName, ((Integer)userValue).intValue());
+                } else {
+                    record.put(propertyName, Integer.parseInt(userValue.toString()));
+                }
             }
         }
         
         public class DoubleValue implements Converter {
             @Override
             public void set(String propertyName, RecordValue record, Object userValue) {
-                record.put(propertyName, Double.parseDouble(userValue.toString()));
+                if (userValue instanceof Double) {
+                    record.put(propertyName, ((Double)userValue).doubleValue());
+                } else {
+                    record.put(propertyName, Double.parseDouble(userValue.toString()));
+                }
             }
         }
         
         public class LongValue implements Converter {
             @Override
             public void set(String propertyName, RecordValue record, Object userValue) {
-                record.put(propertyName, Long.parseLong(userValue.toString()));
+                if (userValue instanceof Long) {
+                    record.put(propertyName, ((Long)userValue).longValue());
+                } else {
+                    record.put(propertyName, Long.parseLong(userValue.toString()));
+                }
             }
         }
 
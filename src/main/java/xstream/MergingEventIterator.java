@@ -0,0 +1,87 @@
+package xstream;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges events of many iterators, each in temporal order, into a single
+ * iteration in temporal order.
+ * <br>
+ * The next event of each iterator is held in a heap ordered by timestamp.
+ * Events of equal timestamp are returned in the order of the iterators.
+ * An iterator is advanced only when its event is returned, so the events
+ * of each iterator are read lazily.
+ *
+ * @author pinaki poddar
+ *
+ */
+class MergingEventIterator implements Iterator<Event> {
+    private final PriorityQueue<Head> _heads;
+
+    /**
+     * Creates a merge of given iterators.
+     *
+     * @param iterators iterators of events in temporal order
+     */
+    MergingEventIterator(List<Iterator<Event>> iterators) {
+        _heads = new PriorityQueue<Head>(Math.max(1, iterators.size()));
+        for (int i = 0; i < iterators.size(); i++) {
+            Iterator<Event> events = iterators.get(i);
+            if (events.hasNext()) {
+                _heads.add(new Head(i, events));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !_heads.isEmpty();
+    }
+
+    @Override
+    public Event next() {
+        Head head = _heads.poll();
+        if (head == null) throw new NoSuchElementException();
+        Event event = head._event;
+        if (head.advance()) {
+            _heads.add(head);
+        }
+        return event;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * The next event of an iterator.
+     */
+    private static class Head implements Comparable<Head> {
+        final int _order;
+        final Iterator<Event> _events;
+        Event _event;
+        long _time;
+
+        Head(int order, Iterator<Event> events) {
+            _order = order;
+            _events = events;
+            advance();
+        }
+
+        boolean advance() {
+            if (!_events.hasNext()) return false;
+            _event = _events.next();
+            _time = _event.getTimestamp();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Head o) {
+            if (_time != o._time) return _time < o._time ? -1 : 1;
+            return _order - o._order;
+        }
+    }
+}
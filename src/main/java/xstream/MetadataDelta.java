@@ -0,0 +1,77 @@
+package xstream;
+
+import static xstream.TimeSeriesSchema.EVENT_COUNT;
+import static xstream.TimeSeriesSchema.SLOT_COUNT;
+import static xstream.TimeSeriesSchema.TIMESTAMP_FIRST;
+import static xstream.TimeSeriesSchema.TIMESTAMP_LAST;
+
+import oracle.kv.table.Row;
+import xstream.util.Updater;
+
+/**
+ * Changes to the aggregates of a series metadata row by the slots flushed
+ * since the row was last updated.
+ * <br>
+ * The changes are relative, so they are added to the latest version of the
+ * row read from the store rather than to a copy held by a writer. Applied by
+ * a {@link xstream.util.RMWLock}, the aggregates remain correct when more
+ * than one writer updates the same series.
+ * <br>
+ * A delta is not thread-safe.
+ *
+ * @author pinaki poddar
+ *
+ */
+class MetadataDelta implements Updater {
+    private int _slotCount;
+    private long _eventCount;
+    private long _first = TimeSeries.UNDEFINED_TIMESTAMP;
+    private long _last  = TimeSeries.UNDEFINED_TIMESTAMP;
+
+    /**
+     * Adds the change due to given flushed slot.
+     */
+    void add(Slot slot) {
+        _slotCount++;
+        _eventCount += slot.getEventCount();
+        TimeRange range = slot.getTimeRange();
+        if (range.isValid()) {
+            _first = _first < 0 ? range.getStartTime() : Math.min(_first, range.getStartTime());
+            _last  = Math.max(_last, range.getEndTime());
+        }
+    }
+
+    int getSlotCount() {
+        return _slotCount;
+    }
+
+    boolean isEmpty() {
+        return _slotCount == 0;
+    }
+
+    void clear() {
+        _slotCount = 0;
+        _eventCount = 0;
+        _first = TimeSeries.UNDEFINED_TIMESTAMP;
+        _last  = TimeSeries.UNDEFINED_TIMESTAMP;
+    }
+
+    /**
+     * Adds this change to the aggregates of given metadata row.
+     */
+    @Override
+    public void update(Row row) {
+        SLOT_COUNT.set(row, SLOT_COUNT.getInt(row) + _slotCount);
+        EVENT_COUNT.set(row, EVENT_COUNT.getLong(row) + _eventCount);
+        if (_first >= 0) {
+            long first = TIMESTAMP_FIRST.getLong(row);
+            TIMESTAMP_FIRST.set(row, first < 0 ? _first : Math.min(first, _first));
+            TIMESTAMP_LAST.set(row, Math.max(TIMESTAMP_LAST.getLong(row), _last));
+        }
+    }
+
+    public String toString() {
+        return "MetadataDelta[slots " + _slotCount + " events " + _eventCount
+            + " range " + _first + ':' + _last + "]";
+    }
+}
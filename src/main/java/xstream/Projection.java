@@ -0,0 +1,60 @@
+package xstream;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Properties of events to be read.
+ * <br>
+ * A slot read with a projection holds values of the projected properties
+ * only. Other properties are neither decoded nor held, and read as null in
+ * an {@link Event}. The timestamp is always read.
+ * <br>
+ * A projection is immutable.
+ *
+ * @author pinaki poddar
+ *
+ */
+class Projection {
+    private final boolean[] _included;
+    private final List<String> _properties;
+
+    private Projection(boolean[] included, List<String> properties) {
+        _included = included;
+        _properties = properties;
+    }
+
+    /**
+     * Creates a projection of given properties.
+     *
+     * @param meta definition of events
+     * @param properties names of properties
+     * @return null if no property is given, which implies all properties
+     * @exception IllegalArgumentException if a property is not defined
+     */
+    static Projection of(EventMetadata meta, String... properties) {
+        if (properties == null || properties.length == 0) return null;
+        List<String> names = meta.getPropertyNames();
+        boolean[] included = new boolean[names.size()];
+        for (String property : properties) {
+            int position = names.indexOf(property);
+            if (position < 0) {
+                throw new IllegalArgumentException("property [" + property
+                        + "] does not exist in " + names);
+            }
+            included[position] = true;
+        }
+        return new Projection(included, Arrays.asList(properties));
+    }
+
+    /**
+     * Affirms if property at given position is projected.
+     */
+    boolean includes(int position) {
+        return _included[position];
+    }
+
+    public String toString() {
+        return "Projection" + _properties;
+    }
+}
@@ -2,25 +2,130 @@ package xstream;
 
 import static xstream.TimeSeriesSchema.*;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Level;
 
 import org.apache.commons.collections4.iterators.LazyIteratorChain;
 
-import oracle.kv.Consistency;
-import oracle.kv.table.RecordValue;
 import oracle.kv.table.Row;
 import oracle.kv.table.Table;
-import oracle.kv.table.TableIterator;
+import xstream.util.Assert;
 
 public class ReadableTimeSeries extends TimeSeries {
+    private SlotCache _slotCache = SlotCache.getShared();
+    private int _readAhead = DEFAULT_READ_AHEAD;
+    private SlotDirectory _directory;
+    private long _directoryCheckedAt;
+    private long _directoryRefreshInterval = DEFAULT_DIRECTORY_REFRESH_INTERVAL_MS;
+    
+    public static int DEFAULT_READ_AHEAD = 2;
+    public static long DEFAULT_DIRECTORY_REFRESH_INTERVAL_MS = 1000;
     
     ReadableTimeSeries(String config, Row row, Table table) {
         super(config, row, table, true);
     }
     
+    /**
+     * Sets the cache of slots read by this series.
+     * 
+     * @param cache a slot cache. null to read every slot from the store.
+     */
+    public void setSlotCache(SlotCache cache) {
+        _slotCache = cache;
+    }
+    
+    public SlotCache getSlotCache() {
+        return _slotCache;
+    }
+    
+    /**
+     * Sets the number of slots fetched ahead of the slot being read by
+     * an iterator or a cursor of this series. Slots are fetched ahead 
+     * on a small pool of threads while events of the current slot are read.
+     * 
+     * @param slots number of slots. 0 fetches each slot only when its 
+     * events are read.
+     */
+    public void setReadAhead(int slots) {
+        Assert.assertTrue(slots >= 0, new IllegalArgumentException(
+                "read ahead " + slots + " must not be negative"));
+        _readAhead = slots;
+    }
+    
+    public int getReadAhead() {
+        return _readAhead;
+    }
+    
+    /**
+     * Finds a slot in the cache before querying the store. A cached slot
+     * holds all properties, so it serves a projected read as well. A slot
+     * read with a projection, or one that is not {@link #isSealed(Slot) 
+     * sealed}, is not cached.
+     */
+    @Override
+    Slot findSlot(int idx, boolean mustExist, Projection projection) {
+        SlotCache cache = _slotCache;
+        if (cache == null || cache.getCapacity() == 0) {
+            return super.findSlot(idx, mustExist, projection);
+        }
+        Slot slot = cache.get(this, idx);
+        if (slot != null) return slot;
+        slot = super.findSlot(idx, mustExist, projection);
+        if (slot != null && projection == null && isSealed(slot)) {
+            cache.put(this, slot);
+        }
+        return slot;
+    }
+    
+    /**
+     * Affirms if given slot read from the store is not written again. A
+     * slot is sealed if it is full by its event limit, or if the directory
+     * of slot time ranges knows a later slot of the same write shard. A slot
+     * full by size is known as sealed only by the latter.
+     */
+    boolean isSealed(Slot slot) {
+        return slot.getLastEventIndex() >= slot.getEventLimit()
+            || getSlotDirectory().isFollowed(slot.getIndex());
+    }
+    
+    /**
+     * Finds slots in the cache and reads the rest from the store in a
+     * single batch.
+     */
+    @Override
+    Map<Integer, Slot> findSlots(Collection<Integer> indices, Projection projection) {
+        SlotCache cache = _slotCache;
+        if (cache == null || cache.getCapacity() == 0) {
+            return super.findSlots(indices, projection);
+        }
+        Map<Integer, Slot> slots = new HashMap<Integer, Slot>();
+        List<Integer> missed = new ArrayList<Integer>();
+        for (Integer idx : indices) {
+            Slot slot = cache.get(this, idx);
+            if (slot == null) {
+                missed.add(idx);
+            } else {
+                slots.put(idx, slot);
+            }
+        }
+        if (missed.isEmpty()) return slots;
+        Map<Integer, Slot> fetched = super.findSlots(missed, projection);
+        if (projection == null) {
+            for (Slot slot : fetched.values()) {
+                if (isSealed(slot)) cache.put(this, slot);
+            }
+        }
+        slots.putAll(fetched);
+        return slots;
+    }
+    
     public Slot initSlot() {
         return findSlot(0);
     }
@@ -42,24 +147,158 @@ public class ReadableTimeSeries extends TimeSeries {
      * 
      * @param startTime any negative value implies from the first available event 
      * @param endTime any negative value implies till the last available event 
-     * @return an iterator of event
+     * @return an iterator of events whose timestamp is between given start 
+     * and end time, inclusive. Events of slots written by different
+     * {@link WritableTimeSeries#getWriteShard() write shards} are merged
+     * in temporal order.
      */
 
     public Iterator<Event> readByTime(final long startTime, final long endTime) {
-        final Set<Integer> slots = findSlotIndicesByTime(
-                startTime < 0 ? Long.MIN_VALUE :startTime,
-                endTime < 0   ? Long.MAX_VALUE : endTime);
+        return readEvents(startTime, endTime, null, null, null);
+    }
+    
+    /**
+     * A cursor to read given properties of events between given start and
+     * end time.
+     * <br>
+     * Values of other properties are not decoded and are null in the 
+     * events. Slots in {@link TimeSeriesBuilder#withCompactSlots() compact}
+     * form skip the encoded values of other properties altogether.
+     * 
+     * @param startTime any negative value implies from the first available event 
+     * @param endTime any negative value implies till the last available event 
+     * @param properties names of properties to be read. All properties
+     * are read if none is given.
+     * @return an iterator of event
+     */
+    public Iterator<Event> readByTime(long startTime, long endTime, String... properties) {
+        return readEvents(startTime, endTime, null, null, 
+                Projection.of(getEventDefinition(), properties));
+    }
+    
+    /**
+     * A cursor to read events between given start and end time whose 
+     * value of given STRING property is equal to given value.
+     * <br>
+     * Values are compared by their code in the dictionary of each slot,
+     * and only matching events are built.
+     * 
+     * @param property name of a STRING property
+     * @param value value to match
+     * @param startTime any negative value implies from the first available event 
+     * @param endTime any negative value implies till the last available event 
+     * @return an iterator of event
+     */
+    public Iterator<Event> readWhereEquals(String property, String value,
+            long startTime, long endTime) {
+        return readEvents(startTime, endTime, property, value, null);
+    }
+    
+    private Iterator<Event> readEvents(final long startTime, final long endTime,
+            final String property, final String value, final Projection projection) {
+        Map<Integer, List<Integer>> shards = findSlotsByShard(startTime, endTime);
+        if (shards.size() <= 1) {
+            List<Integer> slots = shards.isEmpty() 
+                    ? Collections.<Integer>emptyList() : shards.values().iterator().next();
+            return readSlots(slots, startTime, endTime, property, value, projection);
+        }
+        // slots of different shards interleave in time
+        List<Iterator<Event>> iterators = new ArrayList<Iterator<Event>>();
+        for (List<Integer> shardSlots : shards.values()) {
+            iterators.add(readSlots(shardSlots, startTime, endTime, 
+                    property, value, projection));
+        }
+        return new MergingEventIterator(iterators);
+    }
+    
+    /**
+     * A cursor to read events between given start and end time without
+     * creating an object for each event.
+     * 
+     * @param startTime any negative value implies from the first available event 
+     * @param endTime any negative value implies till the last available event 
+     * @return a cursor positioned before the first event
+     */
+    public EventCursor cursor(long startTime, long endTime) {
+        return cursor(startTime, endTime, (Projection)null);
+    }
+    
+    /**
+     * A cursor to read given properties of events between given start and
+     * end time. Other properties can not be read by the cursor.
+     * 
+     * @param startTime any negative value implies from the first available event 
+     * @param endTime any negative value implies till the last available event 
+     * @param properties names of properties to be read. All properties
+     * are read if none is given.
+     * @return a cursor positioned before the first event
+     * @see #readByTime(long, long, String...)
+     */
+    public EventCursor cursor(long startTime, long endTime, String... properties) {
+        return cursor(startTime, endTime, Projection.of(getEventDefinition(), properties));
+    }
+    
+    private EventCursor cursor(long startTime, long endTime, Projection projection) {
+        Map<Integer, List<Integer>> shards = findSlotsByShard(startTime, endTime);
+        return new EventCursor(this, new ArrayList<List<Integer>>(shards.values()),
+                startTime < 0 ? 0 : startTime, 
+                endTime < 0 ? Long.MAX_VALUE : endTime, projection, _readAhead);
+    }
+    
+    /**
+     * A cursor to read all events without creating an object for each event.
+     */
+    public EventCursor cursor() {
+        return cursor(-1, -1);
+    }
+    
+    /**
+     * Finds slots between given time grouped by write shard.
+     * 
+     * @return indices of slots of each shard in temporal order, in ascending
+     * order of shard
+     */
+    private Map<Integer, List<Integer>> findSlotsByShard(long startTime, long endTime) {
+        List<Integer> slots = findSlotIndicesByTime(
+                    startTime < 0 ? 0 : startTime,
+                    endTime < 0   ? Long.MAX_VALUE : endTime);
         _logger.log(Level.FINE, "readByTime() found slots " + slots 
                 + " for time between (" + startTime + "," + endTime + ")");
+        Map<Integer, List<Integer>> shards = new TreeMap<Integer, List<Integer>>();
+        for (Integer idx : slots) {
+            int shard = shardOf(idx);
+            List<Integer> shardSlots = shards.get(shard);
+            if (shardSlots == null) {
+                shardSlots = new ArrayList<Integer>();
+                shards.put(shard, shardSlots);
+            }
+            shardSlots.add(idx);
+        }
+        return shards;
+    }
+    
+    /**
+     * Chains the events of given slots between given time. The slots are 
+     * fetched as the events are read, {@link #setReadAhead(int) some} ahead
+     * of the slot being read.
+     */
+    private Iterator<Event> readSlots(final Collection<Integer> slots, 
+            final long startTime, final long endTime,
+            final String property, final String value, final Projection projection) {
         LazyIteratorChain<Event> chain = new LazyIteratorChain<Event>() {
             
-            Iterator<Integer> iterators = slots.iterator();
+            SlotPrefetcher iterators = new SlotPrefetcher(ReadableTimeSeries.this,
+                    slots.iterator(), projection, _readAhead);
             @Override
             protected Iterator<? extends Event> nextIterator(int iteratorIndex) {
                 _logger.log(Level.FINE, "readByTime.nextIterator() " + iteratorIndex);
                 if (iterators.hasNext()) { 
-                    Slot slot = findSlot(iterators.next());
-                    return slot.iterator();
+                    Slot slot = iterators.next();
+                    if (slot == null) return Collections.<Event>emptyIterator();
+                    long start = startTime < 0 ? 0 : startTime;
+                    long end = endTime < 0 ? Long.MAX_VALUE : endTime;
+                    return property == null ? slot.iterator(start, end) 
+                            : slot.iterator(property, value, start, end);
                 } else {
                     return null;
                 }
@@ -69,42 +308,58 @@ public class ReadableTimeSeries extends TimeSeries {
     }
     
     /**
-     * Events are not ordered by slot index. Events in each slot are time
-     * ordered. We need to sort the slots based on their start time.
+     * Finds slots that hold events between given time. A slot is found if
+     * its time range overlaps with given time, though some of its events
+     * may lie outside.
      *  
-     * @param startTime
-     * @param endTime
-     * @return
-     */
-    Set<Integer> findSlotIndicesByTime(long startTime, long endTime) {
-        String sql = "SELECT " + SLOT_INDEX.getName() + ", "
-                +  TIMESTAMP_FIRST.getName() + ", "
-                +  TIMESTAMP_LAST.getName()
-                + " FROM " + getName();
-        String q1 = TIMESTAMP_FIRST + ">=" +  startTime;
-        String q2 = TIMESTAMP_LAST  + "<=" +  endTime;
-        if (startTime != Long.MIN_VALUE) {
-            if (endTime != Long.MAX_VALUE) {
-                sql += " WHERE " + q1 + " AND " + q2;
-            }
-        } else if (endTime != Long.MAX_VALUE) {
-            sql += " WHERE " + q2;
-        }
-        sql += " ORDER BY " + TIMESTAMP_FIRST.getName();
-        
-        TableIterator<RecordValue> rs = query(sql, Consistency.NONE_REQUIRED);  
-        Set<Integer> result = new TreeSet<Integer>();
-        try {
-            while (rs.hasNext()) {
-                RecordValue r = rs.next();
-                result.add(SLOT_INDEX.getInt(r));
-            }
-        } finally {
-            rs.close();
+     * @param startTime start time, inclusive
+     * @param endTime end time, inclusive
+     * @return indices of slots in temporal order
+     */
+    List<Integer> findSlotIndicesByTime(long startTime, long endTime) {
+        return getSlotDirectory().findOverlapping(startTime, endTime);
+    }
+    
+    /**
+     * Gets indices of the slots that hold events. The indices of a series 
+     * written in {@link WritableTimeSeries#getWriteShard() shards} are not
+     * contiguous.
+     * 
+     * @return indices of slots in temporal order
+     */
+    public List<Integer> getSlotIndices() {
+        return findSlotIndicesByTime(0, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Gets the directory of slot time ranges of this series. The directory
+     * is loaded when first used, and is refreshed if slots have been 
+     * written since, at most once in the {@link 
+     * #setDirectoryRefreshInterval(long) refresh interval}.
+     */
+    synchronized SlotDirectory getSlotDirectory() {
+        long now = System.currentTimeMillis();
+        if (_directory == null) {
+            _directory = SlotDirectory.load(this);
+            _directoryCheckedAt = now;
+        } else if (now - _directoryCheckedAt >= _directoryRefreshInterval) {
+            _directory.refreshIfChanged(this);
+            _directoryCheckedAt = now;
         }
-        return result;
+        return _directory;
     }
     
-
+    /**
+     * Sets how often this series checks for slots written since its
+     * directory of slot time ranges was last refreshed. A check reads the
+     * series metadata by primary key.
+     * 
+     * @param millis interval in milliseconds. 0 checks on every read. 
+     */
+    public void setDirectoryRefreshInterval(long millis) {
+        Assert.assertTrue(millis >= 0, new IllegalArgumentException(
+                "directory refresh interval " + millis + " must not be negative"));
+        _directoryRefreshInterval = millis;
+    }
 
 }
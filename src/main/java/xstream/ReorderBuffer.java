@@ -0,0 +1,153 @@
+package xstream;
+
+import java.util.Arrays;
+
+/**
+ * Holds recent events in a heap ordered by timestamp and releases them in
+ * temporal order once they fall behind a watermark.
+ * <br>
+ * The window is either a time span or a number of events. With a time
+ * span, an event is released when an event later by at least the span has
+ * been added. With a number of events, the earliest event is released when
+ * the buffer holds more than that number. An event that arrives later than
+ * the window allows is released after events that have already been
+ * released.
+ * <br>
+ * A buffer is not thread-safe.
+ *
+ * @author pinaki poddar
+ *
+ */
+class ReorderBuffer {
+    private final long _timeSpan;
+    private final int _eventCount;
+    // binary heap ordered by (timestamp, arrival)
+    private long[] _time;
+    private long[] _arrival;
+    private Event[] _events;
+    private int _size;
+    private long _sequence;
+    private long _latest = -1;
+
+    /**
+     * Creates a buffer.
+     *
+     * @param timeSpan time span of the window in milliseconds.
+     * Not used if negative.
+     * @param eventCount number of events in the window. Not used if
+     * not positive.
+     */
+    ReorderBuffer(long timeSpan, int eventCount) {
+        _timeSpan = timeSpan;
+        _eventCount = eventCount;
+        int capacity = eventCount > 0 ? eventCount + 1 : 64;
+        _time = new long[capacity];
+        _arrival = new long[capacity];
+        _events = new Event[capacity];
+    }
+
+    int size() {
+        return _size;
+    }
+
+    boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * Adds an event.
+     */
+    void add(Event event) {
+        long t = event.getTimestamp();
+        if (_size == _time.length) {
+            int capacity = _size * 2;
+            _time = Arrays.copyOf(_time, capacity);
+            _arrival = Arrays.copyOf(_arrival, capacity);
+            _events = Arrays.copyOf(_events, capacity);
+        }
+        int i = _size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(t, _sequence, parent)) break;
+            move(parent, i);
+            i = parent;
+        }
+        set(i, t, _sequence++, event);
+        _latest = Math.max(_latest, t);
+    }
+
+    /**
+     * Removes the earliest event if it has passed the watermark.
+     *
+     * @return null if no event is ready to be released
+     */
+    Event release() {
+        if (_size == 0) return null;
+        boolean ready = (_eventCount > 0 && _size > _eventCount)
+                || (_timeSpan >= 0 && _time[0] <= _latest - _timeSpan);
+        return ready ? poll() : null;
+    }
+
+    /**
+     * Removes the earliest event if it is not later than given time.
+     *
+     * @return null if no event is ready to be released
+     */
+    Event releaseUpTo(long t) {
+        return _size > 0 && _time[0] <= t ? poll() : null;
+    }
+
+    /**
+     * Removes the earliest event regardless of the watermark.
+     *
+     * @return null if the buffer is empty
+     */
+    Event poll() {
+        if (_size == 0) return null;
+        Event first = _events[0];
+        int last = --_size;
+        long t = _time[last];
+        long a = _arrival[last];
+        Event e = _events[last];
+        _events[last] = null;
+        if (last > 0) {
+            int i = 0;
+            while (true) {
+                int child = 2*i + 1;
+                if (child >= last) break;
+                if (child + 1 < last && before(_time[child+1], _arrival[child+1], child)) {
+                    child++;
+                }
+                if (!before(_time[child], _arrival[child], t, a)) break;
+                move(child, i);
+                i = child;
+            }
+            set(i, t, a, e);
+        }
+        return first;
+    }
+
+    private boolean before(long t, long arrival, int i) {
+        return before(t, arrival, _time[i], _arrival[i]);
+    }
+
+    private static boolean before(long t1, long a1, long t2, long a2) {
+        return t1 < t2 || (t1 == t2 && a1 < a2);
+    }
+
+    private void move(int from, int to) {
+        set(to, _time[from], _arrival[from], _events[from]);
+    }
+
+    private void set(int i, long t, long arrival, Event e) {
+        _time[i] = t;
+        _arrival[i] = arrival;
+        _events[i] = e;
+    }
+
+    public String toString() {
+        return "ReorderBuffer[" + _size + " events"
+            + (_timeSpan >= 0 ? " span " + _timeSpan + "ms" : "")
+            + (_eventCount > 0 ? " count " + _eventCount : "") + "]";
+    }
+}
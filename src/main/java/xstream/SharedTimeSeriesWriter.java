@@ -0,0 +1,346 @@
+package xstream;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import xstream.util.Assert;
+import xstream.util.MpscRing;
+
+/**
+ * Writes events from many threads to a single {@link WritableTimeSeries}.
+ * <br>
+ * A series is not thread-safe. A shared writer lets producer threads
+ * create events concurrently and hand them over to a lock-free
+ * {@link MpscRing ring}. A single drain thread takes the events in order of
+ * hand over and writes them to the series, so that the current slot, the
+ * slot sequence and flush of slots are accessed by one thread only.
+ * <br>
+ * Events of different producers arrive at the drain interleaved in time.
+ * A thread that writes its events in temporal order writes through its own
+ * {@link #newProducer() producer}. The drain merges the events of all
+ * producers: an event is held until every open producer has written an
+ * event at or after it, and is then written to the series in temporal
+ * order. So the time ranges of producers may overlap. Events that are out
+ * of order within a producer are put in order by the
+ * {@link WritableTimeSeries#setReorderWindow(long) reorder window} of the
+ * series, if any. A producer takes part in the merge from when it is
+ * created, so it is to be created when its thread starts to write, and 
+ * closed when done, else the events of others are held for it. An event
+ * of a producer created later than others may be earlier than events
+ * already written, and is then written as a late event.
+ * <br>
+ * Events written {@link #write(long, Object[]) directly} to this writer 
+ * are merged with the events of the producers, and written in order of 
+ * hand over if there is no open producer.
+ * <br>
+ * The ring is bounded. A producer that outpaces the series waits for the
+ * ring to drain. The events held for the merge are bounded as well: when
+ * as many events are held as the ring holds, a producer waits for the
+ * earliest producer to catch up, unless it is the earliest one.
+ * <br>
+ * An event that fails to be written does not stop the drain thread. The
+ * first error is thrown to a producer on its next write and on
+ * {@link #close()}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class SharedTimeSeriesWriter {
+    private final WritableTimeSeries _series;
+    private final MpscRing<Entry> _ring;
+    private final Thread _drainer;
+    // producers created but not yet seen by the drain thread
+    private final Queue<Producer> _created = new ConcurrentLinkedQueue<Producer>();
+    // producers that have not been closed, earliest first. Drain thread only
+    private final TreeSet<Producer> _producers = new TreeSet<Producer>(
+            new Comparator<Producer>() {
+                @Override
+                public int compare(Producer a, Producer b) {
+                    if (a._latest != b._latest) return a._latest < b._latest ? -1 : 1;
+                    return a._id < b._id ? -1 : (a._id == b._id ? 0 : 1);
+                }
+            });
+    private final AtomicInteger _producerCount = new AtomicInteger();
+    // events held until all open producers have passed them. Drain thread only
+    private final ReorderBuffer _merge = new ReorderBuffer(-1, 0);
+    private final int _mergeCapacity;
+    // number of events held and the earliest open producer, as last seen 
+    // by the drain thread
+    private volatile int _held;
+    private volatile Producer _earliest;
+    private volatile boolean _closed;
+    private volatile RuntimeException _error;
+
+    public static int DEFAULT_CAPACITY = 64*1024;
+
+    private static final long IDLE_PARK_NANOS = 100*1000;
+
+    /**
+     * Creates a writer and starts its drain thread.
+     *
+     * @param series series to be written. The series must not be written
+     * other than by this writer.
+     * @param capacity maximum number of events waiting to be taken by the
+     * drain thread, and of events held for the merge before producers wait
+     */
+    public SharedTimeSeriesWriter(WritableTimeSeries series, int capacity) {
+        Assert.assertNotNull(series, new IllegalArgumentException("null series"));
+        Assert.assertFalse(series.isClosed(), new IllegalStateException(
+                series + " is closed"));
+        _series = series;
+        _ring = new MpscRing<Entry>(capacity);
+        _mergeCapacity = capacity;
+        _drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "drainer-" + series.getName());
+        _drainer.setDaemon(true);
+        _drainer.start();
+    }
+
+    public SharedTimeSeriesWriter(WritableTimeSeries series) {
+        this(series, DEFAULT_CAPACITY);
+    }
+
+    public WritableTimeSeries getSeries() {
+        return _series;
+    }
+
+    /**
+     * Creates a producer of events in temporal order. Can be called by
+     * any thread. The events of other producers are held for the new
+     * producer until it writes past them or is closed.
+     */
+    public Producer newProducer() {
+        Assert.assertFalse(_closed, new IllegalStateException(
+                "cannot add producer to " + _series + " because shared writer is closed"));
+        Producer producer = new Producer(_producerCount.getAndIncrement());
+        _created.add(producer);
+        return producer;
+    }
+
+    /**
+     * Writes event to the series. Can be called by any thread.
+     *
+     * @param ts timestamp of the event
+     * @param values values of the event properties in same order as
+     * {@link EventMetadata#getPropertyNames()}
+     * @see WritableTimeSeries#write(long, Object[])
+     */
+    public void write(long ts, Object[] values) {
+        enqueue(new Entry(null, _series.newEvent(ts, values)));
+    }
+
+    /**
+     * Writes event to the series. Can be called by any thread.
+     *
+     * @param ts timestamp of the event
+     * @param values values of the event properties indexed by name
+     * @see WritableTimeSeries#write(long, Map)
+     */
+    public void write(long ts, Map<String, Object> values) {
+        enqueue(new Entry(null, _series.newEvent(ts, values)));
+    }
+
+    private void enqueue(Entry entry) {
+        Assert.assertFalse(_closed, new IllegalStateException(
+                "cannot write to " + _series + " because shared writer is closed"));
+        rethrowError();
+        _ring.put(entry);
+    }
+
+    /**
+     * Waits until all events written before this call have been taken by
+     * the drain thread. An event held for an open producer that has not 
+     * written past it is written later.
+     */
+    public void flush() {
+        long target = _ring.claimed();
+        while (_ring.consumed() < target && _drainer.isAlive()) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        rethrowError();
+    }
+
+    /**
+     * Waits for all events to be written, stops the drain thread and
+     * closes the series. Must be called after producers have stopped
+     * writing.
+     *
+     * @exception RuntimeException if any event failed to be written
+     */
+    public void close() {
+        if (_closed) return;
+        _closed = true;
+        try {
+            _drainer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while closing writer of "
+                    + _series, ex);
+        }
+        _series.close();
+        rethrowError();
+    }
+
+    private void rethrowError() {
+        if (_error != null) {
+            throw new RuntimeException("failed to write events to " + _series, _error);
+        }
+    }
+
+    /**
+     * Loop of the drain thread. Merges events as they arrive and exits when
+     * this writer is closed and the ring has been drained.
+     */
+    private void drain() {
+        int idle = 0;
+        while (true) {
+            Entry entry = _ring.poll();
+            if (entry == null) {
+                if (_closed && _ring.consumed() == _ring.claimed()) {
+                    release(Long.MAX_VALUE);
+                    return;
+                }
+                if (++idle < 64) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                continue;
+            }
+            idle = 0;
+            // a producer is created before it hands over its first entry
+            Producer created;
+            while ((created = _created.poll()) != null) {
+                _producers.add(created);
+            }
+            Producer producer = entry._producer;
+            if (entry._event == null) {
+                _producers.remove(producer);
+            } else {
+                long t = entry._event.getTimestamp();
+                if (producer != null && t > producer._latest) {
+                    _producers.remove(producer);
+                    producer._latest = t;
+                    _producers.add(producer);
+                }
+                _merge.add(entry._event);
+            }
+            release(watermark());
+            _earliest = _producers.isEmpty() ? null : _producers.first();
+            _held = _merge.size();
+        }
+    }
+
+    /**
+     * Gets the time up to which all open producers have written. A later
+     * event of a producer is not earlier.
+     */
+    private long watermark() {
+        return _producers.isEmpty() ? Long.MAX_VALUE : _producers.first()._latest;
+    }
+
+    /**
+     * Writes held events up to given time to the series in temporal order.
+     */
+    private void release(long watermark) {
+        Event e;
+        while ((e = _merge.releaseUpTo(watermark)) != null) {
+            try {
+                _series.write(e);
+            } catch (RuntimeException ex) {
+                TimeSeries._logger.log(Level.SEVERE, "failed to write " + e, ex);
+                if (_error == null) _error = ex;
+            }
+        }
+    }
+
+    public String toString() {
+        return "SharedTimeSeriesWriter[" + _series.getName() + " " + _ring + "]";
+    }
+
+    /**
+     * Writes events of a single thread in temporal order through a shared
+     * writer.
+     */
+    public class Producer {
+        private final int _id;
+        // latest timestamp taken by the drain thread. Drain thread only
+        private long _latest = -1;
+        private volatile boolean _done;
+
+        private Producer(int id) {
+            _id = id;
+        }
+
+        /**
+         * Writes event to the series. The timestamp is not to be earlier
+         * than the timestamp of an event written before by this producer.
+         *
+         * @see WritableTimeSeries#write(long, Object[])
+         */
+        public void write(long ts, Object[] values) {
+            enqueue(newEntry(_series.newEvent(ts, values)));
+        }
+
+        /**
+         * Writes event to the series. The timestamp is not to be earlier
+         * than the timestamp of an event written before by this producer.
+         *
+         * @see WritableTimeSeries#write(long, Map)
+         */
+        public void write(long ts, Map<String, Object> values) {
+            enqueue(newEntry(_series.newEvent(ts, values)));
+        }
+
+        private Entry newEntry(Event e) {
+            Assert.assertFalse(_done, new IllegalStateException(
+                    "cannot write to " + _series + " because producer is closed"));
+            awaitMerge();
+            return new Entry(this, e);
+        }
+
+        /**
+         * Waits while the merge holds as many events as it can, unless this
+         * producer is the earliest one, which the held events wait for.
+         */
+        private void awaitMerge() {
+            while (_held >= _mergeCapacity && _earliest != this 
+                && !_closed && _drainer.isAlive()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+
+        /**
+         * Declares that this producer writes no more events, so that the
+         * events of other producers are no longer held for it.
+         */
+        public void close() {
+            if (_done || _closed) return;
+            _done = true;
+            _ring.put(new Entry(this, null));
+        }
+    }
+
+    /**
+     * An event handed over by a producer, or the end of a producer.
+     */
+    private static class Entry {
+        final Producer _producer;
+        final Event _event;
+
+        Entry(Producer producer, Event event) {
+            _producer = producer;
+            _event = event;
+        }
+    }
+}
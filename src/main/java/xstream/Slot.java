@@ -6,6 +6,7 @@ import static xstream.TimeSeriesSchema.EVENT_LIMIT;
 import static xstream.TimeSeriesSchema.FIRST_EVENT_INDEX;
 import static xstream.TimeSeriesSchema.LAST_EVENT_INDEX;
 import static xstream.TimeSeriesSchema.NEXT_SLOT;
+import static xstream.TimeSeriesSchema.PACKED_EVENTS;
 import static xstream.TimeSeriesSchema.PREV_SLOT;
 import static xstream.TimeSeriesSchema.SLOT_FIELDS;
 import static xstream.TimeSeriesSchema.SLOT_INDEX;
@@ -13,9 +14,6 @@ import static xstream.TimeSeriesSchema.TIMESTAMP_FIRST;
 import static xstream.TimeSeriesSchema.TIMESTAMP_LAST;
 
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
 import java.util.logging.Level;
 
 import oracle.kv.Consistency;
@@ -33,7 +31,11 @@ import xstream.util.Updater;
  * sequence and metadata about the timeslot such as time range of the events
  * and slot index. <br>
  * Maximum number of events in a slot is fixed, though events can
- *  vary in structure and storage. <br>
+ *  vary in structure and storage. A slot of a series with a 
+ *  {@link WritableTimeSeries#setSlotByteSize(int, int) target size} is
+ *  also full when its events reach that size. <br>
+ * Events are held in memory {@link EventColumns column by column} and 
+ * an {@link Event} is built only when it is read. <br>
  * A slot is a row in a  timeseries
  * {@link TimeSeries#getTable() database table}.
  * 
@@ -43,7 +45,12 @@ import xstream.util.Updater;
 public class Slot implements Comparable<Slot> {
     private final TimeSeries _timeseries;
     private final Row _row;
-    private final List<Event> _events; // actual events
+    private final EventColumns _events; // actual events
+    // estimated bytes of events. computed when first needed, -1 until then
+    private long _byteSize = -1;
+    // events of a compact slot as last encoded, and number of events then
+    private byte[] _packed;
+    private int _packedCount;
     
 
     /**
@@ -55,13 +62,30 @@ public class Slot implements Comparable<Slot> {
      * 
      */
     Slot(TimeSeries series, Row row) {
+        this(series, row, null);
+    }
+    
+    /**
+     * Create a slot from given row with the values of projected properties
+     * only. A projected slot is read-only.
+     * 
+     * @param projection properties to be read. null for all.
+     */
+    Slot(TimeSeries series, Row row, Projection projection) {
        Assert.assertNotNull(row, "can not initaize slot from null record");
        for (Field f : SLOT_FIELDS ) {
            f.assertExistsIn(row);
        }
         _timeseries = series;
         _row = row;
-        _events = fetchEvents(row.get(EVENTS.getName()));
+        if (series.isCompact()) {
+            _events = fetchPackedEvents(row.get(PACKED_EVENTS.getName()), projection);
+        } else {
+            _events = fetchEvents(row.get(EVENTS.getName()), projection);
+        }
+        if (series.isUniform() && _events.size() > 0) {
+            _events.setUniformTimestamps(getFirstEventTimestamp(), series.getTimeInterval());
+        }
     }
     
     /**
@@ -149,32 +173,166 @@ public class Slot implements Comparable<Slot> {
      * @param event
      * @param last
      * @param events
-     * 
-     * @return true if the given event is the highest timestamp.
      */
-    void ensureTemporalOrder(Event event, long last, List<Event> events) {
+    void ensureTemporalOrder(Event event, long last, EventColumns events) {
         long t = event.getTimestamp();
+        int idx = insertionIndex(t, last, events);
+        if (idx < 0) return;
+        events.insert(idx, event.getRecord());
+        if (_byteSize >= 0) _byteSize += events.byteSize(idx);
+        eventInserted(t, idx == events.size()-1);
+    }
+    
+    /**
+     * Adds events of a batch to this slot in temporal order. Events are
+     * added up to the limit of this slot.
+     * <br>
+     * If timestamps of the events are ordered and not earlier than the
+     * last event of this slot, the events are copied column by column.
+     * Otherwise each event is inserted as a single event would be.
+     * 
+     * @param batch a batch of events
+     * @param from index of first event in the batch to be added
+     * @param n number of events to be added
+     * @return number of events of the batch consumed, which may be less 
+     * than n if this slot is filled.
+     */
+    int insertEvents(EventBatch batch, int from, int n) {
+        Assert.assertNotNull(batch, new IllegalArgumentException());
+        Assert.assertFalse(isFull(),new IllegalStateException(this + " is full"));
+        int first = Math.max(0, getFirstEventIndex());
+        n = Math.min(n, getEventLimit() - first - _events.size());
+        int target = _timeseries.getSlotByteSize();
+        if (target > 0) {
+            n = limitByByteSize(batch, from, n, target);
+        }
+        if (n <= 0) return 0;
+        long[] time = batch.getTimestamps();
+        long last = getLastEventTimestamp();
+        if (time[from] >= 0 && (time[from] >= last || last < 0)
+         && batch.isOrdered(from, n)) {
+            _events.append(batch, from, n);
+            if (_byteSize >= 0) {
+                for (int row = from; row < from + n; row++) {
+                    _byteSize += batch.byteSize(row);
+                }
+            }
+            eventInserted(time[from + n - 1], true);
+            return n;
+        }
+        for (int row = from; row < from + n; row++) {
+            long t = time[row];
+            int idx = insertionIndex(t, getLastEventTimestamp(), _events);
+            if (idx < 0) continue;
+            _events.insert(idx, batch, row);
+            if (_byteSize >= 0) _byteSize += batch.byteSize(row);
+            eventInserted(t, idx == _events.size()-1);
+        }
+        return n;
+    }
+    
+    /**
+     * Counts the events of a batch that can be added before this slot
+     * reaches given size in bytes.
+     */
+    private int limitByByteSize(EventBatch batch, int from, int n, int target) {
+        double size = getRecordByteSize();
+        double ratio = _timeseries.isCompact() ? _timeseries.getPackedRatio() : 1;
+        long count = _events.size();
+        int minEvents = _timeseries.getSlotMinEvents();
+        int m = 0;
+        while (m < n && (size < target || count < minEvents)) {
+            size += batch.byteSize(from + m) * ratio;
+            count++;
+            m++;
+        }
+        return m;
+    }
+    
+    /**
+     * Gets the estimated number of bytes of events of this slot in a 
+     * database record.
+     */
+    long getByteSize() {
+        if (_byteSize < 0) {
+            long size = 0;
+            for (int i = 0; i < _events.size(); i++) {
+                size += _events.byteSize(i);
+            }
+            _byteSize = size;
+        }
+        return _byteSize;
+    }
+    
+    /**
+     * Gets the estimated number of bytes of events of this slot as stored.
+     * The events of a {@link TimeSeries#isCompact() compact} slot are 
+     * estimated by the ratio of encoded to plain size of the slots encoded
+     * before, or are the actual size if no event has been added since
+     * this slot was last encoded.
+     */
+    long getRecordByteSize() {
+        if (!_timeseries.isCompact()) {
+            return getByteSize();
+        }
+        if (_packed != null && _packedCount == _events.size()) {
+            return _packed.length;
+        }
+        return (long)(getByteSize() * _timeseries.getPackedRatio());
+    }
+    
+    /**
+     * Encodes the events of a compact slot, unless no event has been added
+     * since they were last encoded. The ratio of encoded to plain size is
+     * noted in the series to estimate the size of later slots.
+     */
+    private byte[] pack() {
+        if (_packed == null || _packedCount != _events.size()) {
+            _packed = SlotCodec.encode(_events, !_timeseries.isUniform());
+            _packedCount = _events.size();
+            long plain = getByteSize();
+            if (plain > 0) {
+                _timeseries.setPackedRatio((double)_packed.length/plain);
+            }
+        }
+        return _packed;
+    }
+    
+    /**
+     * Finds the index at which an event of given timestamp is to be 
+     * inserted in the given events. An event earlier than the last event
+     * is either rejected, ignored or sorted according to the 
+     * {@link TimeSeries#isTimeOrderStrict() ordering} of the series.
+     * 
+     * @param t timestamp of an event
+     * @param last timestamp of the last event
+     * @param events events of this slot
+     * @return index where the event is inserted or -1 if the event is
+     * to be ignored.
+     */
+    private int insertionIndex(long t, long last, EventColumns events) {
         if (t < 0) {
             handleError("invalid event timestamp " + t 
             + ". Timestamp must be greater than equal to zero", true);
-            return;
+            return -1;
         }
-        if (t >= last || last < 0) {
-            events.add(event);
-            if (getFirstEventIndex() < 0) {
-                setFirstEventIndex(0);
-                setFirstEventTimestamp(t);
+        if (_timeseries.isUniform()) {
+            if (last >= 0 && t != last + _timeseries.getTimeInterval()) {
+                handleError("event timestamp " + t + " is not next to last event " 
+                        + last + " at interval " + _timeseries.getTimeInterval() 
+                        + " of uniform series", true);
             }
-            setLastEventIndex(getFirstEventIndex() + _events.size());
-            setLastEventTimestamp(t);
-            return;
+            return events.size();
+        }
+        if (t >= last || last < 0) {
+            return events.size();
         }
         boolean strict = _timeseries.isTimeOrderStrict();
         boolean autoSort = _timeseries.isAutoSortEvent();
         handleError("event " + " timestamp " + t + " is earlier than last event  " 
                     + getLastEventTimestamp(), strict);
        if (strict) {
-           return;
+           return -1;
        } else if (autoSort) {
            if (t <= getFirstEventTimestamp()) {
                handleError("unordered event timestamp " 
@@ -184,22 +342,30 @@ public class Slot implements Comparable<Slot> {
            TimeSeries._logger.log(Level.FINE, 
                    "sorting unordered event timestamp " + t
                    + " because it is earlier than last timestamp " + last);
-           ListIterator<Event> iterator = events.listIterator(events.size()-1);
-           while (iterator.hasPrevious()) {
-               int idx = iterator.previousIndex();
-               Event previous = iterator.previous();
-               if (t >= previous.getTimestamp()) {
-                   TimeSeries._logger.log(Level.FINE, "inserting unordered event at " + idx);
-                   events.add(idx, event);
-                   return;
-               }
-           }
-           handleError("unexpected error. unordered event " + t
-                   + " slot time starts at " + getFirstEventTimestamp(), true);
+           int idx = events.insertionPoint(t);
+           TimeSeries._logger.log(Level.FINE, "inserting unordered event at " + idx);
+           return idx;
        } else {
             TimeSeries._logger.log(Level.WARNING, "unordered event " + t);
+            return -1;
        }
-        
+    }
+    
+    /**
+     * Updates event index and time range after events have been inserted.
+     * 
+     * @param t timestamp of the last inserted event
+     * @param appended true if the event has been added at the end
+     */
+    private void eventInserted(long t, boolean appended) {
+        if (getFirstEventIndex() < 0) {
+            setFirstEventIndex(0);
+            setFirstEventTimestamp(_events.getTimestamp(0));
+        }
+        setLastEventIndex(getFirstEventIndex() + _events.size());
+        if (appended) {
+            setLastEventTimestamp(t);
+        }
     }
 
     /**
@@ -227,29 +393,39 @@ public class Slot implements Comparable<Slot> {
      * to mark that events have been fetched.
      * 
      * @param eventRecords a database record for a time slot as an array of events
-     * @return empty list if database record is null. Otherwise, a list of Event
-     * objects. Each element of given input array of record is converted
-     * to a Event object.
+     * @param projection properties to be populated. null for all.
+     * @return empty columns if database record is null. Otherwise, columns
+     * populated with the values of each element of given input array.
      */
-    private List<Event> fetchEvents(FieldValue eventRecords) {
+    private EventColumns fetchEvents(FieldValue eventRecords, Projection projection) {
+        EventMetadata meta = _timeseries.getEventDefinition();
         if (eventRecords == null || eventRecords.isNull()) {
             TimeSeries._logger.log(Level.FINE, "database event record is null for slot "); 
-            return new LinkedList<Event>();
+            return new EventColumns(meta, Math.min(getEventLimit(), 
+                    EventColumns.DEFAULT_CAPACITY), projection);
         }
         
         if (!eventRecords.isArray()) 
             throw new RuntimeException("events are not an array"
                 + " database record type is " + eventRecords.getType());
         
-        List<Event> events = new LinkedList<Event>();
-        ArrayValue array = eventRecords.asArray();
-        for (int i = 0; i < array.size(); i++) {
-             FieldValue elementValue = array.get(i);
-             Event event = _timeseries.getEventDefinition()
-                     .newEvent(elementValue.asRecord());
-             events.add(event);
+        return new EventColumns(meta, eventRecords.asArray(), projection);
+    }
+    
+    /**
+     * Decodes events stored in {@link SlotCodec compact form}.
+     * 
+     * @param packed a binary database value
+     * @param projection properties to be decoded. null for all.
+     * @return empty columns if database value is null.
+     */
+    private EventColumns fetchPackedEvents(FieldValue packed, Projection projection) {
+        EventMetadata meta = _timeseries.getEventDefinition();
+        if (packed == null || packed.isNull()) {
+            return new EventColumns(meta, Math.min(getEventLimit(), 
+                    EventColumns.DEFAULT_CAPACITY), projection);
         }
-        return events;
+        return SlotCodec.decode(meta, packed.asBinary().get(), projection);
     }
     
 
@@ -327,7 +503,14 @@ public class Slot implements Comparable<Slot> {
      * @return true if no more event can be written to this slot
      */
     public boolean isFull() {
-        return getLastEventIndex() >= getEventLimit();
+        if (getLastEventIndex() >= getEventLimit()) return true;
+        int target = _timeseries.getSlotByteSize();
+        if (target <= 0 || getEventCount() < _timeseries.getSlotMinEvents()
+         || getRecordByteSize() < target) {
+            return false;
+        }
+        // the estimate of a compact slot is checked by encoding its events
+        return !_timeseries.isCompact() || pack().length >= target;
     }
     
     /**
@@ -361,7 +544,7 @@ public class Slot implements Comparable<Slot> {
                 new RuntimeException("event at index " + i 
                 + " is not avaialble. valid event index range is " 
                 + "(" + getFirstEventIndex() + "," + getLastEventIndex() + "]"));
-            return _events.get(i);
+            return _events.getEvent(i);
         }
     }
     
@@ -377,47 +560,64 @@ public class Slot implements Comparable<Slot> {
     void flush() {
         EVENT_COUNT.set(_row, getEventCount());
         ArrayValue array = _timeseries.createEventsArray();
-         if (_events != null) {
-             for (Event e : _events) {
-                 array.add(e.getRecord());
-             } 
+        boolean withTimestamps = !_timeseries.isUniform();
+        if (_timeseries.isCompact()) {
+            _row.put(PACKED_EVENTS.getName(), pack());
+        } else if (_events != null) {
+             _events.addTo(array, withTimestamps);
          } 
          _row.put(EVENTS.getName(), array);
          
-        if (isOverlap()) {
-            throw new RuntimeException("slot " + this + " overlaps");
+        SlotIntervalIndex intervals = _timeseries.getSlotIntervals();
+        boolean claimed = false;
+        if (intervals != null && getFirstEventIndex() >= 0) {
+            SlotIntervalIndex.Range overlap = intervals.putIfDisjoint(getIndex(), 
+                    getFirstEventTimestamp(), getLastEventTimestamp());
+            if (overlap != null) {
+                throw new RuntimeException("slot " + this + " overlaps " + overlap);
+            }
+            claimed = true;
+        }
+        try {
+            if ((!claimed || _timeseries.isOverlapCheckStrict()) && isOverlap()) {
+                throw new RuntimeException("slot " + this + " overlaps");
+            }
+            _timeseries._store.getTableAPI().put(_row, null, null);
+            SlotCache.getShared().invalidate(_timeseries, getIndex());
+        } catch (RuntimeException ex) {
+            if (claimed) intervals.remove(getIndex());
+            throw ex;
         }
-        _timeseries._store.getTableAPI().put(_row, null, null);
     }
     
+    /**
+     * Affirms if time range of this slot overlaps with that of any other
+     * slot of the same write shard stored in the database. Queries the 
+     * database.
+     * 
+     * @return true if the time range of any other slot overlaps.
+     */
     boolean isOverlap() {
         long t0 = getFirstEventTimestamp();
         long tN = getLastEventTimestamp();
+        if (t0 < 0) return false;
         
         String sql = "select  " 
                 + SLOT_INDEX.getName() + ", "
                 + TIMESTAMP_FIRST.getName() + ", "
                 + TIMESTAMP_LAST.getName()
              + " from " + _timeseries.getName()
-             + " where " + TIMESTAMP_FIRST.getName() + ">= 0 AND "
-                         + TIMESTAMP_LAST.getName() + ">= 0 AND "
-                 + " (( " + TIMESTAMP_FIRST.getName() + " > " + t0 
-                     + " AND " + TIMESTAMP_FIRST.getName() + " < " + tN 
-                 + ") OR (" + TIMESTAMP_FIRST.getName() + " < " + t0 
-                    + " and " + TIMESTAMP_LAST.getName() + " < " + tN + "))";
+             + " where " + SLOT_INDEX.getName() + " <> " + getIndex() + " AND "
+                         + TIMESTAMP_FIRST.getName() + ">= 0 AND "
+                         + TIMESTAMP_FIRST.getName() + " < " + tN + " AND "
+                         + TIMESTAMP_LAST.getName() + " > " + t0
+                         + _timeseries.shardCondition();
        TableIterator<RecordValue> rs = _timeseries.query(sql, Consistency.ABSOLUTE);
-       boolean overlap = rs.hasNext();
-       if (overlap) {
-//           System.err.println("overlaps slot " + getIndex()
-//           + " " + t0 + " - " + tN);
+       try {
+           return rs.hasNext();
+       } finally {
+           rs.close();
        }
-       while (rs.hasNext()) {
-           RecordValue r = rs.next();
-//           System.err.println("\t" + SLOT_INDEX.getInt(r)
-//           + " " + TIMESTAMP_FIRST.getLong(r)
-//           + " - " + TIMESTAMP_LAST.getLong(r));
-       }
-       return overlap;
     }
     
     @Override
@@ -431,23 +631,146 @@ public class Slot implements Comparable<Slot> {
 
 
     public Iterator<Event> iterator() {
-        return new EventIterator();
+        return new EventIterator(0, _events.size());
+    }
+    
+    /**
+     * Iterates events between given time. 
+     * 
+     * @param startTime timestamp of the first event, inclusive
+     * @param endTime timestamp of the last event, inclusive
+     * @return events within given time
+     */
+    Iterator<Event> iterator(long startTime, long endTime) {
+        return new EventIterator(startIndex(startTime), endIndex(endTime));
+    }
+    
+    /**
+     * Gets the position of the first event at or after given time. The
+     * position is computed for a uniform series, and otherwise searched
+     * in the timestamps only if given time is later than the first event.
+     */
+    int startIndex(long startTime) {
+        long first = getFirstEventTimestamp();
+        if (startTime <= first) return 0;
+        if (!_timeseries.isUniform()) return _events.lowerBound(startTime);
+        long interval = _timeseries.getTimeInterval();
+        long from = (startTime - first + interval - 1)/interval;
+        return (int)Math.min(from, _events.size());
+    }
+    
+    /**
+     * Gets the position after the last event at or before given time. The
+     * position is computed for a uniform series, and otherwise searched
+     * in the timestamps only if given time is earlier than the last event.
+     */
+    int endIndex(long endTime) {
+        if (endTime >= getLastEventTimestamp()) return _events.size();
+        if (!_timeseries.isUniform()) return _events.insertionPoint(endTime);
+        long first = getFirstEventTimestamp();
+        long interval = _timeseries.getTimeInterval();
+        long to = endTime < first ? 0 : (endTime - first)/interval + 1;
+        return (int)Math.min(to, _events.size());
+    }
+    
+    /**
+     * Gets the events of this slot column by column.
+     */
+    EventColumns getEvents() {
+        return _events;
+    }
+    
+    /**
+     * Iterates events whose value of given STRING property equals given 
+     * value. The events are selected by comparing dictionary codes rather
+     * than strings, and an event is built only if it is selected.
+     * 
+     * @param property name of a STRING property
+     * @param value a value to match. 
+     * @return events whose property value is equal to given value
+     */
+    Iterator<Event> iterator(String property, String value) {
+        return iterator(property, value, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Iterates events between given time whose value of given STRING 
+     * property equals given value.
+     * 
+     * @param property name of a STRING property
+     * @param value a value to match. 
+     * @param startTime timestamp of the first event, inclusive
+     * @param endTime timestamp of the last event, inclusive
+     * @return events whose property value is equal to given value
+     */
+    Iterator<Event> iterator(String property, String value, long startTime, long endTime) {
+        int position = _timeseries.getEventDefinition().getPropertyNames().indexOf(property);
+        EventColumns.Column column = position < 0 ? null : _events.getColumn(position);
+        if (!(column instanceof EventColumns.StringColumn)) {
+            throw new IllegalArgumentException("property [" + property 
+                    + "] is not a STRING property of " + _timeseries);
+        }
+        return new MatchingEventIterator((EventColumns.StringColumn)column, value,
+                startIndex(startTime), endIndex(endTime));
     }
 
     public String toString() {
         return "Slot-" + getIndex() + " [" + getFirstEventIndex() + ":" + getLastEventIndex() + "]";
     }
 
+    private class MatchingEventIterator implements Iterator<Event> {
+        final EventColumns.StringColumn _column;
+        final int _code;
+        final int _end;
+        int _pos;
+
+        MatchingEventIterator(EventColumns.StringColumn column, String value,
+                int from, int to) {
+            _column = column;
+            _code = value == null ? -1 : column.codeOf(value);
+            _end = to;
+            _pos = _code < 0 ? _end : advance(from);
+        }
+        
+        private int advance(int i) {
+            while (i < _end 
+                && (_column.isNull(i) || _column.getCode(i) != _code)) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _pos < _end;
+        }
+
+        @Override
+        public Event next() {
+            if (!hasNext()) throw new java.util.NoSuchElementException();
+            Event event = _events.getEvent(_pos);
+            _pos = advance(_pos + 1);
+            return event;
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     private class EventIterator implements Iterator<Event> {
         int _pos;
+        final int _end;
 
-        EventIterator() {
-            _pos = 0;
+        EventIterator(int from, int to) {
+            _pos = from;
+            _end = to;
         }
 
         @Override
         public boolean hasNext() {
-            return _pos < _events.size();
+            return _pos < _end;
         }
 
         @Override
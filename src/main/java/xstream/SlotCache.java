@@ -0,0 +1,187 @@
+package xstream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import xstream.util.Assert;
+import xstream.util.Stats;
+
+/**
+ * Slots read from the store, held in memory for readers of any series.
+ * <br>
+ * Slots are keyed by series and slot index and evicted in least recently
+ * used order when the {@link Slot#getByteSize() estimated bytes} of the
+ * cached slots exceed the capacity.
+ * <br>
+ * Only a sealed slot is cached. A slot is sealed when it is full by its
+ * event limit or when a later slot of its write shard has been stored, as
+ * a writer does not write a slot again once it has moved past it. A cached
+ * slot remains valid without asking the store for its version. The slot
+ * that is being written is always read from the store. A writer in the
+ * same process invalidates a slot of the {@link #getShared() shared} cache
+ * whenever it is flushed.
+ * <br>
+ * Hits, misses and evictions are counted in {@link #getStats() stats}.
+ * <br>
+ * A cache is thread-safe.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class SlotCache {
+    private final LinkedHashMap<Key, Slot> _slots;
+    private long _capacity;
+    private long _byteSize;
+    private final Stats _stats = new Stats();
+
+    public static final String HIT      = "hit";
+    public static final String MISS     = "miss";
+    public static final String EVICTION = "eviction";
+
+    public static long DEFAULT_CAPACITY = 64L*1024*1024;
+
+    private static final SlotCache _shared = new SlotCache(DEFAULT_CAPACITY);
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity maximum estimated bytes of cached slots. 0 disables
+     * the cache.
+     */
+    public SlotCache(long capacity) {
+        setCapacity(capacity);
+        _slots = new LinkedHashMap<Key, Slot>(64, 0.75f, true);
+    }
+
+    /**
+     * Gets the cache shared by all readable series.
+     */
+    public static SlotCache getShared() {
+        return _shared;
+    }
+
+    public synchronized long getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Sets the maximum estimated bytes of cached slots. Slots are evicted
+     * if the cache exceeds the new capacity.
+     *
+     * @param capacity 0 disables the cache
+     */
+    public synchronized void setCapacity(long capacity) {
+        Assert.assertTrue(capacity >= 0, new IllegalArgumentException(
+                "slot cache capacity " + capacity + " must not be negative"));
+        _capacity = capacity;
+        if (_slots != null) evict();
+    }
+
+    /**
+     * Gets the estimated bytes of cached slots.
+     */
+    public synchronized long getByteSize() {
+        return _byteSize;
+    }
+
+    /**
+     * Gets number of cached slots.
+     */
+    public synchronized int size() {
+        return _slots.size();
+    }
+
+    /**
+     * Gets counters of {@link #HIT hits}, {@link #MISS misses} and
+     * {@link #EVICTION evictions}.
+     */
+    public Stats getStats() {
+        return _stats;
+    }
+
+    /**
+     * Removes all slots.
+     */
+    public synchronized void clear() {
+        _slots.clear();
+        _byteSize = 0;
+    }
+
+    /**
+     * Gets a cached slot of given series.
+     *
+     * @return null if the slot is not cached
+     */
+    Slot get(TimeSeries series, int idx) {
+        Slot slot;
+        synchronized (this) {
+            slot = _slots.get(new Key(series, idx));
+        }
+        _stats.increment(slot == null ? MISS : HIT);
+        return slot;
+    }
+
+    /**
+     * Caches given slot if it fits in the cache.
+     *
+     * @param slot a sealed slot
+     */
+    void put(TimeSeries series, Slot slot) {
+        long size = slot.getByteSize();
+        synchronized (this) {
+            if (size > _capacity) return;
+            Slot old = _slots.put(new Key(series, slot.getIndex()), slot);
+            if (old != null) _byteSize -= old.getByteSize();
+            _byteSize += size;
+            evict();
+        }
+    }
+
+    /**
+     * Removes a slot of given series.
+     */
+    synchronized void invalidate(TimeSeries series, int idx) {
+        Slot old = _slots.remove(new Key(series, idx));
+        if (old != null) _byteSize -= old.getByteSize();
+    }
+
+    private void evict() {
+        Iterator<Slot> slots = _slots.values().iterator();
+        while (_byteSize > _capacity && slots.hasNext()) {
+            _byteSize -= slots.next().getByteSize();
+            slots.remove();
+            _stats.increment(EVICTION);
+        }
+    }
+
+    public String toString() {
+        return "SlotCache[" + size() + " slots " + getByteSize() + " of "
+                + getCapacity() + " bytes " + _stats + "]";
+    }
+
+    /**
+     * Identifies a slot by the URL of its series and its index.
+     */
+    private static class Key {
+        final String _series;
+        final int _idx;
+
+        Key(TimeSeries series, int idx) {
+            _series = series.getURL().toString();
+            _idx = idx;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*_series.hashCode() + _idx;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key)obj;
+            return _idx == other._idx && _series.equals(other._series);
+        }
+    }
+}
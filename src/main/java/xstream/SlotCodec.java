@@ -0,0 +1,403 @@
+package xstream;
+
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.Set;
+
+import oracle.kv.table.FieldDef.Type;
+import oracle.kv.table.RecordDef;
+import xstream.EventColumns.Column;
+import xstream.EventColumns.DoubleColumn;
+import xstream.EventColumns.IntColumn;
+import xstream.EventColumns.LongColumn;
+import xstream.EventColumns.StringColumn;
+import xstream.util.BitReader;
+import xstream.util.BitWriter;
+
+/**
+ * Encodes events of a slot in a compact binary form.
+ * <br>
+ * Events are encoded column by column:
+ * <ul>
+ * <li>timestamps as the first timestamp, the first difference, and then
+ * the difference of consecutive differences in a variable number of bits.
+ * Regular timestamps cost a single bit per event. Timestamps of a
+ * uniform series are not encoded at all.
+ * <li>DOUBLE values as the exclusive-or with the previous value, with the
+ * leading and trailing zero bits elided.
+ * <li>INTEGER and LONG values as the difference from the previous value
+ * in zigzag variable length encoding.
+ * <li>STRING values as a dictionary of the distinct values of the slot,
+ * each as length and UTF-8 bytes, followed by the dictionary code of each
+ * value in the least number of bits.
+ * </ul>
+ * A column with null values is preceded by a bit for each event that
+ * marks a null. A null value is not encoded otherwise.
+ * <br>
+ * Each column is preceded by its length in bits, so that a column can be
+ * skipped when events are {@link Projection projected}.
+ *
+ * @author pinaki poddar
+ *
+ */
+class SlotCodec {
+    static final int VERSION = 1;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final Set<Type> SUPPORTED_TYPES = EnumSet.of(
+            Type.DOUBLE, Type.INTEGER, Type.LONG, Type.STRING);
+
+    /**
+     * Affirms if events of given definition can be encoded.
+     *
+     * @throws IllegalArgumentException if a property is of a type that
+     * can not be encoded.
+     */
+    static void assertSupported(RecordDef def) {
+        for (int i = 0; i < def.getNumFields(); i++) {
+            Type type = def.getFieldDef(i).getType();
+            if (!SUPPORTED_TYPES.contains(type)) {
+                throw new IllegalArgumentException("property " + def.getFieldName(i)
+                    + " of type " + type + " is not supported in compact slots");
+            }
+        }
+    }
+
+    /**
+     * Affirms if events of given property definitions can be encoded,
+     * before a series is defined with them.
+     *
+     * @param fieldDefs definitions of properties as name and type, such
+     * as <code>x INTEGER</code>
+     * @throws IllegalArgumentException if a property is of a type that
+     * can not be encoded.
+     */
+    static void assertSupported(String... fieldDefs) {
+        for (String fieldDef : fieldDefs) {
+            String[] tokens = fieldDef.trim().split("\\s+");
+            Type type = null;
+            if (tokens.length > 1) {
+                try {
+                    type = Type.valueOf(tokens[1].toUpperCase());
+                } catch (IllegalArgumentException ex) {
+                    // not a type that can be encoded
+                }
+            }
+            if (type == null || !SUPPORTED_TYPES.contains(type)) {
+                throw new IllegalArgumentException("property [" + fieldDef
+                    + "] is not supported in compact slots. Supported types are "
+                    + SUPPORTED_TYPES);
+            }
+        }
+    }
+
+    static byte[] encode(EventColumns events) {
+        return encode(events, true);
+    }
+
+    /**
+     * Encodes events with or without their timestamps. Timestamps of a
+     * uniform series are derived from the slot and are not encoded.
+     */
+    static byte[] encode(EventColumns events, boolean withTimestamps) {
+        if (events.getProjection() != null) {
+            throw new IllegalStateException("can not encode events with "
+                    + events.getProjection());
+        }
+        int n = events.size();
+        BitWriter out = new BitWriter(16 + 4*n);
+        out.writeBits(VERSION, 8);
+        out.writeVarint(n);
+        out.writeBit(withTimestamps);
+        if (withTimestamps) {
+            encodeTimestamps(out, events.getTimestamps(), n);
+        }
+        RecordDef def = events.getEventDefinition().asRecordDef();
+        for (int p = 0; p < def.getNumFields(); p++) {
+            if (p == events.getTimestampPosition()) continue;
+            BitWriter column = new BitWriter(4*n);
+            encodeColumn(column, events.getColumn(p), n);
+            out.writeVarint(column.getBitCount());
+            out.write(column);
+        }
+        return out.toByteArray();
+    }
+
+    static void encodeColumn(BitWriter out, Column column, int n) {
+        encodeNulls(out, column._nulls, n);
+        if (column instanceof DoubleColumn) {
+            encodeDoubles(out, ((DoubleColumn)column)._values, column._nulls, n);
+        } else if (column instanceof IntColumn) {
+            int[] values = ((IntColumn)column)._values;
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                if (column._nulls.get(i)) continue;
+                out.writeSignedVarint(values[i] - prev);
+                prev = values[i];
+            }
+        } else if (column instanceof LongColumn) {
+            long[] values = ((LongColumn)column)._values;
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                if (column._nulls.get(i)) continue;
+                out.writeSignedVarint(values[i] - prev);
+                prev = values[i];
+            }
+        } else if (column instanceof StringColumn) {
+            encodeStrings(out, (StringColumn)column, n);
+        } else {
+            // types are checked when a compact series is created or opened
+            throw new AssertionError("property " + column.getName()
+                + " is not supported in compact slots");
+        }
+    }
+
+    static EventColumns decode(EventMetadata meta, byte[] bytes) {
+        return decode(meta, bytes, null);
+    }
+
+    /**
+     * Decodes the timestamps and the projected properties of events.
+     * <br>
+     * Each column is preceded by its length, so a property that is not
+     * projected is skipped without being decoded.
+     *
+     * @param projection properties to be decoded. null for all.
+     */
+    static EventColumns decode(EventMetadata meta, byte[] bytes, Projection projection) {
+        BitReader in = new BitReader(bytes);
+        int version = (int)in.readBits(8);
+        if (version != VERSION) {
+            throw new IllegalStateException("compact slot version " + version
+                    + " is not supported");
+        }
+        int n = (int)in.readVarint();
+        EventColumns events = new EventColumns(meta, n, projection);
+        events.resize(n);
+        if (in.readBit()) {
+            decodeTimestamps(in, events.getTimestamps(), n);
+        }
+        RecordDef def = meta.asRecordDef();
+        for (int p = 0; p < def.getNumFields(); p++) {
+            if (p == events.getTimestampPosition()) continue;
+            Column column = events.getColumn(p);
+            long length = in.readVarint();
+            if (column == null) {
+                in.skip(length);
+            } else {
+                decodeColumn(in, column, n);
+            }
+        }
+        return events;
+    }
+
+    static void decodeColumn(BitReader in, Column column, int n) {
+        decodeNulls(in, column._nulls, n);
+        if (column instanceof DoubleColumn) {
+            decodeDoubles(in, ((DoubleColumn)column)._values, column._nulls, n);
+        } else if (column instanceof IntColumn) {
+            int[] values = ((IntColumn)column)._values;
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                if (column._nulls.get(i)) continue;
+                prev += in.readSignedVarint();
+                values[i] = (int)prev;
+            }
+        } else if (column instanceof LongColumn) {
+            long[] values = ((LongColumn)column)._values;
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                if (column._nulls.get(i)) continue;
+                prev += in.readSignedVarint();
+                values[i] = prev;
+            }
+        } else if (column instanceof StringColumn) {
+            decodeStrings(in, (StringColumn)column, n);
+        } else {
+            // types are checked when a compact series is created or opened
+            throw new AssertionError("property " + column.getName()
+                + " is not supported in compact slots");
+        }
+    }
+
+    /**
+     * Encodes the dictionary of a string column and then the codes. The
+     * codes of the column are used as they are, so that decoded column has
+     * the same codes.
+     */
+    static void encodeStrings(BitWriter out, StringColumn column, int n) {
+        int size = column._dictionary.size();
+        out.writeVarint(size);
+        for (String s : column._dictionary) {
+            writeString(out, s);
+        }
+        int width = bitWidth(size);
+        for (int i = 0; i < n; i++) {
+            if (column._nulls.get(i)) continue;
+            out.writeBits(column._codes[i], width);
+        }
+    }
+
+    static void decodeStrings(BitReader in, StringColumn column, int n) {
+        int size = (int)in.readVarint();
+        for (int c = 0; c < size; c++) {
+            column.encode(readString(in));
+        }
+        int width = bitWidth(size);
+        for (int i = 0; i < n; i++) {
+            if (column._nulls.get(i)) continue;
+            column._codes[i] = (int)in.readBits(width);
+        }
+    }
+
+    /**
+     * Gets number of bits to represent codes less than given size.
+     */
+    static int bitWidth(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    static void writeString(BitWriter out, String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeVarint(bytes.length);
+        for (byte b : bytes) out.writeBits(b, 8);
+    }
+
+    static String readString(BitReader in) {
+        byte[] b = new byte[(int)in.readVarint()];
+        for (int j = 0; j < b.length; j++) b[j] = (byte)in.readBits(8);
+        return new String(b, UTF8);
+    }
+
+    static void encodeTimestamps(BitWriter out, long[] time, int n) {
+        if (n == 0) return;
+        out.writeBits(time[0], 64);
+        if (n == 1) return;
+        long prevDelta = time[1] - time[0];
+        out.writeSignedVarint(prevDelta);
+        for (int i = 2; i < n; i++) {
+            long delta = time[i] - time[i-1];
+            long zz = BitWriter.zigzag(delta - prevDelta);
+            if (zz == 0) {
+                out.writeBit(false);
+            } else if (zz < (1 << 7)) {
+                out.writeBits(0x2, 2);
+                out.writeBits(zz, 7);
+            } else if (zz < (1 << 9)) {
+                out.writeBits(0x6, 3);
+                out.writeBits(zz, 9);
+            } else if (zz < (1 << 12)) {
+                out.writeBits(0xE, 4);
+                out.writeBits(zz, 12);
+            } else {
+                out.writeBits(0xF, 4);
+                out.writeBits(zz, 64);
+            }
+            prevDelta = delta;
+        }
+    }
+
+    static void decodeTimestamps(BitReader in, long[] time, int n) {
+        if (n == 0) return;
+        time[0] = in.readBits(64);
+        if (n == 1) return;
+        long delta = in.readSignedVarint();
+        time[1] = time[0] + delta;
+        for (int i = 2; i < n; i++) {
+            long zz;
+            if (!in.readBit()) {
+                zz = 0;
+            } else if (!in.readBit()) {
+                zz = in.readBits(7);
+            } else if (!in.readBit()) {
+                zz = in.readBits(9);
+            } else if (!in.readBit()) {
+                zz = in.readBits(12);
+            } else {
+                zz = in.readBits(64);
+            }
+            delta += BitReader.unzigzag(zz);
+            time[i] = time[i-1] + delta;
+        }
+    }
+
+    static void encodeDoubles(BitWriter out, double[] values, BitSet nulls, int n) {
+        boolean first = true;
+        long prev = 0;
+        int prevLeading = -1;
+        int prevTrailing = 0;
+        for (int i = 0; i < n; i++) {
+            if (nulls.get(i)) continue;
+            long bits = Double.doubleToRawLongBits(values[i]);
+            if (first) {
+                out.writeBits(bits, 64);
+                first = false;
+            } else {
+                long xor = bits ^ prev;
+                if (xor == 0) {
+                    out.writeBit(false);
+                } else {
+                    out.writeBit(true);
+                    int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                        out.writeBit(false);
+                        out.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+                    } else {
+                        int length = 64 - leading - trailing;
+                        out.writeBit(true);
+                        out.writeBits(leading, 5);
+                        out.writeBits(length - 1, 6);
+                        out.writeBits(xor >>> trailing, length);
+                        prevLeading = leading;
+                        prevTrailing = trailing;
+                    }
+                }
+            }
+            prev = bits;
+        }
+    }
+
+    static void decodeDoubles(BitReader in, double[] values, BitSet nulls, int n) {
+        boolean first = true;
+        long prev = 0;
+        int prevLeading = 0;
+        int prevTrailing = 0;
+        for (int i = 0; i < n; i++) {
+            if (nulls.get(i)) continue;
+            long bits;
+            if (first) {
+                bits = in.readBits(64);
+                first = false;
+            } else if (!in.readBit()) {
+                bits = prev;
+            } else {
+                if (in.readBit()) {
+                    prevLeading = (int)in.readBits(5);
+                    int length = (int)in.readBits(6) + 1;
+                    prevTrailing = 64 - prevLeading - length;
+                }
+                long xor = in.readBits(64 - prevLeading - prevTrailing) << prevTrailing;
+                bits = prev ^ xor;
+            }
+            values[i] = Double.longBitsToDouble(bits);
+            prev = bits;
+        }
+    }
+
+    static void encodeNulls(BitWriter out, BitSet nulls, int n) {
+        boolean hasNull = nulls.nextSetBit(0) >= 0 && nulls.nextSetBit(0) < n;
+        out.writeBit(hasNull);
+        if (!hasNull) return;
+        for (int i = 0; i < n; i++) {
+            out.writeBit(nulls.get(i));
+        }
+    }
+
+    static void decodeNulls(BitReader in, BitSet nulls, int n) {
+        if (!in.readBit()) return;
+        for (int i = 0; i < n; i++) {
+            if (in.readBit()) nulls.set(i);
+        }
+    }
+}
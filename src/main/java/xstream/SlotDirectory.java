@@ -0,0 +1,295 @@
+package xstream;
+
+import static xstream.TimeSeriesSchema.EVENT_COUNT;
+import static xstream.TimeSeriesSchema.SLOT_COUNT;
+import static xstream.TimeSeriesSchema.SLOT_INDEX;
+import static xstream.TimeSeriesSchema.TIMESTAMP_FIRST;
+import static xstream.TimeSeriesSchema.TIMESTAMP_LAST;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import oracle.kv.Consistency;
+import oracle.kv.table.RecordValue;
+import oracle.kv.table.Row;
+import oracle.kv.table.TableIterator;
+
+/**
+ * Time ranges of all slots of a series held in memory by a reader.
+ * <br>
+ * The first and last timestamp, index and event count of each slot are
+ * held in primitive arrays sorted by first timestamp. A time range is
+ * resolved to slots in temporal order by binary search without querying
+ * the store.
+ * <br>
+ * The directory is loaded once. It is refreshed when the aggregates of
+ * the series metadata show that slots have been written since. A refresh
+ * reads only the last slot of each write shard, if it was not full, and
+ * the slots written after it. An earlier slot is not written again. If the
+ * slots then hold fewer events than the metadata, as when slots have been
+ * flushed out of order, the directory is loaded again.
+ * <br>
+ * A directory is thread-safe.
+ *
+ * @author pinaki poddar
+ *
+ */
+class SlotDirectory {
+    private long[] _first = new long[0];
+    private long[] _last  = new long[0];
+    private long[] _count = new long[0];
+    private int[]  _idx   = new int[0];
+    // highest slot index of each write shard
+    private Map<Integer, Integer> _lastInShard = new HashMap<Integer, Integer>();
+    // longest time range of a slot
+    private long _maxSpan;
+    // aggregates of the series metadata at last refresh
+    private int  _slotCount  = -1;
+    private long _eventCount = -1;
+
+    /**
+     * Loads time ranges of all slots of given series.
+     */
+    static SlotDirectory load(TimeSeries series) {
+        SlotDirectory directory = new SlotDirectory();
+        directory.refresh(series);
+        return directory;
+    }
+
+    /**
+     * Refreshes this directory if the aggregates of the series metadata in
+     * the store have changed since last refresh. The metadata is read by
+     * its primary key.
+     *
+     * @return true if this directory has been refreshed
+     */
+    boolean refreshIfChanged(TimeSeries series) {
+        Row latest = readMetadata(series);
+        synchronized (this) {
+            if (latest == null 
+             || (SLOT_COUNT.getInt(latest) == _slotCount
+              && EVENT_COUNT.getLong(latest) == _eventCount)) {
+                return false;
+            }
+            refresh(series, latest);
+            return true;
+        }
+    }
+
+    /**
+     * Reads slots written or changed since last refresh.
+     */
+    synchronized void refresh(TimeSeries series) {
+        refresh(series, readMetadata(series));
+    }
+
+    private static Row readMetadata(TimeSeries series) {
+        return series._store.getTableAPI().get(
+                series._metadata.createPrimaryKey(), TimeSeries.SLOT_READ_OPTION);
+    }
+
+    /**
+     * Reads slots written or changed since last refresh, and remembers the
+     * aggregates of given metadata.
+     */
+    private void refresh(TimeSeries series, Row latest) {
+        String sql = "SELECT " + SLOT_INDEX.getName() + ", "
+                + TIMESTAMP_FIRST.getName() + ", "
+                + TIMESTAMP_LAST.getName() + ", "
+                + EVENT_COUNT.getName()
+                + " FROM " + series.getName();
+        String condition = changedCondition(series.getSlotEventLimit());
+        if (condition != null) sql += " WHERE " + condition;
+        TableIterator<RecordValue> rs = series.query(sql, Consistency.NONE_REQUIRED);
+        if (rs == null) {
+            throw new RuntimeException("can not load slot directory of "
+                    + series + " SQL:" + sql);
+        }
+        List<RecordValue> changed = new ArrayList<RecordValue>();
+        try {
+            while (rs.hasNext()) {
+                changed.add(rs.next());
+            }
+        } finally {
+            rs.close();
+        }
+        merge(changed);
+        if (condition != null && latest != null 
+         && eventCount() < EVENT_COUNT.getLong(latest)) {
+            // a slot was flushed after a later slot of its shard
+            _first = new long[0]; _last = new long[0];
+            _count = new long[0]; _idx  = new int[0];
+            _lastInShard = new HashMap<Integer, Integer>();
+            refresh(series, latest);
+            return;
+        }
+        if (latest != null) {
+            _slotCount  = SLOT_COUNT.getInt(latest);
+            _eventCount = EVENT_COUNT.getLong(latest);
+        }
+    }
+
+    /**
+     * Finds slots whose time range overlaps with given time range.
+     *
+     * @param start start time, inclusive
+     * @param end end time, inclusive
+     * @return indices of slots in temporal order
+     */
+    synchronized List<Integer> findOverlapping(long start, long end) {
+        List<Integer> result = new ArrayList<Integer>();
+        // a slot that ends at or after start begins at most the longest span earlier
+        long from = start - _maxSpan;
+        for (int i = lowerBound(from < 0 ? 0 : from); i < _idx.length; i++) {
+            if (_first[i] > end) break;
+            if (_last[i] >= start) result.add(_idx[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Affirms if a slot of a higher index than the given slot is known in
+     * the same write shard. The writer of the shard has moved past the
+     * given slot, so it is not written again.
+     */
+    synchronized boolean isFollowed(int idx) {
+        Integer last = _lastInShard.get(TimeSeries.shardOf(idx));
+        return last != null && last > idx;
+    }
+
+    synchronized int size() {
+        return _idx.length;
+    }
+
+    /**
+     * Gets the position of the first slot that begins at or after given time.
+     */
+    private int lowerBound(long t) {
+        int lo = 0, hi = _first.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_first[mid] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Gets a query condition that selects, in each write shard, the last
+     * slot if it was not full and the slots after it. Slots of shards not
+     * seen before are selected in full.
+     *
+     * @return null if all slots are to be selected
+     */
+    private String changedCondition(int eventLimit) {
+        if (_idx.length == 0) return null;
+        // position of the slot with the highest index in each shard
+        TreeMap<Integer, Integer> lastSlot = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < _idx.length; i++) {
+            int shard = TimeSeries.shardOf(_idx[i]);
+            Integer j = lastSlot.get(shard);
+            if (j == null || _idx[i] > _idx[j]) lastSlot.put(shard, i);
+        }
+        String idx = SLOT_INDEX.getName();
+        StringBuilder condition = new StringBuilder();
+        int lastShard = lastSlot.lastKey();
+        for (int shard = 0; shard <= lastShard; shard++) {
+            long base = (long)shard * TimeSeries.SHARD_SLOT_RANGE;
+            long from = base;
+            Integer j = lastSlot.get(shard);
+            if (j != null) {
+                from = _count[j] < eventLimit ? _idx[j] : _idx[j] + 1;
+            }
+            condition.append("(").append(idx).append(" >= ").append(from)
+                .append(" AND ").append(idx).append(" < ")
+                .append(base + TimeSeries.SHARD_SLOT_RANGE).append(") OR ");
+        }
+        condition.append(idx).append(" >= ")
+            .append((long)(lastShard + 1) * TimeSeries.SHARD_SLOT_RANGE);
+        return condition.toString();
+    }
+
+    private long eventCount() {
+        long n = 0;
+        for (int i = 0; i < _count.length; i++) n += _count[i];
+        return n;
+    }
+
+    /**
+     * Replaces the slots of given records and sorts all slots by first
+     * timestamp.
+     */
+    private void merge(List<RecordValue> records) {
+        if (records.isEmpty()) return;
+        Set<Integer> replaced = new HashSet<Integer>();
+        for (RecordValue r : records) {
+            replaced.add(SLOT_INDEX.getInt(r));
+        }
+        int n = _idx.length - countOf(replaced) + records.size();
+        final long[] first = new long[n];
+        final long[] last  = new long[n];
+        final long[] count = new long[n];
+        final int[]  idx   = new int[n];
+        int k = 0;
+        for (int i = 0; i < _idx.length; i++) {
+            if (replaced.contains(_idx[i])) continue;
+            first[k] = _first[i]; last[k] = _last[i];
+            count[k] = _count[i]; idx[k] = _idx[i];
+            k++;
+        }
+        for (RecordValue r : records) {
+            idx[k]   = SLOT_INDEX.getInt(r);
+            first[k] = TIMESTAMP_FIRST.getLong(r);
+            last[k]  = TIMESTAMP_LAST.getLong(r);
+            count[k] = EVENT_COUNT.getLong(r);
+            k++;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (first[a] != first[b]) return first[a] < first[b] ? -1 : 1;
+                return idx[a] < idx[b] ? -1 : (idx[a] == idx[b] ? 0 : 1);
+            }
+        });
+        _first = new long[n];
+        _last  = new long[n];
+        _count = new long[n];
+        _idx   = new int[n];
+        _maxSpan = 0;
+        Map<Integer, Integer> lastInShard = new HashMap<Integer, Integer>();
+        for (int i = 0; i < n; i++) {
+            int j = order[i];
+            _first[i] = first[j]; _last[i] = last[j];
+            _count[i] = count[j]; _idx[i]  = idx[j];
+            if (_first[i] >= 0) _maxSpan = Math.max(_maxSpan, _last[i] - _first[i]);
+            int shard = TimeSeries.shardOf(_idx[i]);
+            Integer highest = lastInShard.get(shard);
+            if (highest == null || _idx[i] > highest) lastInShard.put(shard, _idx[i]);
+        }
+        _lastInShard = lastInShard;
+    }
+
+    private int countOf(Set<Integer> indices) {
+        int n = 0;
+        for (int i = 0; i < _idx.length; i++) {
+            if (indices.contains(_idx[i])) n++;
+        }
+        return n;
+    }
+
+    public String toString() {
+        return "SlotDirectory[" + size() + " slots]";
+    }
+}
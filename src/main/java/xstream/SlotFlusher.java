@@ -0,0 +1,152 @@
+package xstream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import xstream.util.Assert;
+
+/**
+ * Flushes full slots of a {@link WritableTimeSeries} on background threads.
+ * <br>
+ * A writer hands over a slot as soon as the slot is full and continues
+ * writing to a new slot. Flusher threads drain the queue in batches. Each
+ * slot of a batch is written as a row, and the series metadata is updated
+ * once for the whole batch.
+ * <br>
+ * The queue is bounded. A writer that outpaces the store blocks on a full
+ * queue rather than accumulating slots in memory.
+ *
+ * @author pinaki poddar
+ *
+ */
+class SlotFlusher {
+    private final WritableTimeSeries _series;
+    private final BlockingQueue<Slot> _queue;
+    private final int _batchSize;
+    private final Thread[] _threads;
+    private volatile boolean _closed;
+    private volatile RuntimeException _error;
+
+    public static int DEFAULT_QUEUE_CAPACITY = 16;
+    public static int DEFAULT_FLUSHER_COUNT  = 2;
+    public static int MAX_BATCH_SIZE         = 8;
+
+    private static final long POLL_INTERVAL_MS = 100;
+
+    /**
+     * Creates and starts flusher threads for given series.
+     *
+     * @param series the series whose slots are flushed
+     * @param capacity maximum number of full slots waiting to be flushed
+     * @param flusherCount number of flusher threads
+     */
+    SlotFlusher(WritableTimeSeries series, int capacity, int flusherCount) {
+        Assert.assertTrue(capacity > 0, new IllegalArgumentException(
+                "flush queue capacity " + capacity + " must be positive"));
+        Assert.assertTrue(flusherCount > 0, new IllegalArgumentException(
+                "flusher count " + flusherCount + " must be positive"));
+        _series = series;
+        _queue = new ArrayBlockingQueue<Slot>(capacity);
+        _batchSize = Math.min(capacity, MAX_BATCH_SIZE);
+        _threads = new Thread[flusherCount];
+        for (int i = 0; i < flusherCount; i++) {
+            _threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "flusher-" + series.getName() + "-" + i);
+            _threads[i].setDaemon(true);
+            _threads[i].start();
+        }
+    }
+
+    /**
+     * Hands over a full slot to be flushed. Blocks if the queue is full.
+     *
+     * @param slot a slot that would not be written any more
+     * @exception IllegalStateException if this flusher has been closed
+     * @exception RuntimeException if an earlier slot failed to flush
+     */
+    void enqueue(Slot slot) {
+        Assert.assertFalse(_closed, new IllegalStateException(
+                "cannot flush " + slot + " because flusher is closed"));
+        rethrowError();
+        try {
+            _queue.put(slot);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while queuing " + slot, ex);
+        }
+    }
+
+    /**
+     * Waits for all queued slots to be flushed and stops flusher threads.
+     *
+     * @exception RuntimeException if any slot failed to flush
+     */
+    void close() {
+        _closed = true;
+        for (Thread t : _threads) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while closing flusher of "
+                        + _series, ex);
+            }
+        }
+        rethrowError();
+    }
+
+    /**
+     * Affirms if no slot is waiting to be flushed.
+     *
+     * @return true if the queue is empty
+     */
+    boolean isEmpty() {
+        return _queue.isEmpty();
+    }
+
+    private void rethrowError() {
+        if (_error != null) {
+            throw new RuntimeException("failed to flush slots of " + _series, _error);
+        }
+    }
+
+    /**
+     * Loop of a flusher thread. Takes a batch of slots from the queue
+     * and flushes them together. Exits when this flusher is closed and
+     * the queue has been drained.
+     */
+    private void drain() {
+        List<Slot> batch = new ArrayList<Slot>(_batchSize);
+        while (true) {
+            Slot slot;
+            try {
+                slot = _queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (slot == null) {
+                if (_closed) return;
+                continue;
+            }
+            batch.add(slot);
+            _queue.drainTo(batch, _batchSize - 1);
+            try {
+                _series.flush(batch, true);
+            } catch (RuntimeException ex) {
+                TimeSeries._logger.log(Level.SEVERE, "failed to flush " + batch, ex);
+                if (_error == null) _error = ex;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package xstream;
+
+import static xstream.TimeSeriesSchema.SLOT_INDEX;
+import static xstream.TimeSeriesSchema.TIMESTAMP_FIRST;
+import static xstream.TimeSeriesSchema.TIMESTAMP_LAST;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import oracle.kv.Consistency;
+import oracle.kv.table.RecordValue;
+import oracle.kv.table.TableIterator;
+
+/**
+ * Time ranges of the slots of a series held in memory, sorted by time.
+ * <br>
+ * The index answers whether the time range of a slot overlaps with the
+ * time range of any other slot in logarithmic time without querying the
+ * store. Two ranges overlap if they share a time that is interior to
+ * both, so consecutive slots may share a boundary timestamp.
+ * <br>
+ * The index is loaded once when a {@link WritableTimeSeries} is opened
+ * and is updated as its slots are flushed. Slots written by other writers
+ * after the index is loaded are not known to the index.
+ *
+ * @author pinaki poddar
+ *
+ */
+class SlotIntervalIndex {
+    private final TreeSet<Range> _ranges = new TreeSet<Range>();
+    private final Map<Integer, Range> _byIndex = new HashMap<Integer, Range>();
+
+    /**
+     * Loads time ranges of all non-empty slots of the write shard of given
+     * series.
+     *
+     * @param series a timeseries
+     * @return an index of slot time ranges
+     */
+    static SlotIntervalIndex load(TimeSeries series) {
+        SlotIntervalIndex index = new SlotIntervalIndex();
+        String sql = "SELECT " + SLOT_INDEX.getName() + ", "
+                + TIMESTAMP_FIRST.getName() + ", "
+                + TIMESTAMP_LAST.getName()
+                + " FROM " + series.getName()
+                + " WHERE " + TIMESTAMP_FIRST.getName() + ">= 0"
+                + series.shardCondition();
+        TableIterator<RecordValue> rs = series.query(sql, Consistency.ABSOLUTE);
+        if (rs == null) {
+            throw new RuntimeException("can not load slot time ranges of " 
+                    + series + " SQL:" + sql);
+        }
+        try {
+            while (rs.hasNext()) {
+                RecordValue r = rs.next();
+                index.put(SLOT_INDEX.getInt(r),
+                        TIMESTAMP_FIRST.getLong(r), TIMESTAMP_LAST.getLong(r));
+            }
+        } finally {
+            rs.close();
+        }
+        return index;
+    }
+
+    /**
+     * Records the time range of given slot if it does not overlap with the
+     * time range of any other slot. The earlier time range of the same
+     * slot, if any, is replaced.
+     *
+     * @param idx index of a slot
+     * @param first timestamp of first event of the slot
+     * @param last timestamp of last event of the slot
+     * @return the range of another slot that overlaps, or null if the
+     * given range has been recorded
+     */
+    synchronized Range putIfDisjoint(int idx, long first, long last) {
+        Range range = new Range(idx, first, last);
+        Range previous = _byIndex.remove(idx);
+        if (previous != null) {
+            _ranges.remove(previous);
+        }
+        Range overlap = findOverlap(range);
+        if (overlap != null) {
+            if (previous != null) put(previous);
+            return overlap;
+        }
+        put(range);
+        return null;
+    }
+
+    /**
+     * Removes time range of given slot.
+     *
+     * @param idx index of a slot
+     */
+    synchronized void remove(int idx) {
+        Range range = _byIndex.remove(idx);
+        if (range != null) {
+            _ranges.remove(range);
+        }
+    }
+
+    synchronized int size() {
+        return _ranges.size();
+    }
+
+    private void put(int idx, long first, long last) {
+        put(new Range(idx, first, last));
+    }
+
+    private void put(Range range) {
+        _ranges.add(range);
+        _byIndex.put(range._idx, range);
+    }
+
+    /**
+     * Finds a range that overlaps with given range. As recorded ranges do
+     * not overlap, their end times are ordered as their start times. So
+     * only the immediate neighbors of given range need to be checked.
+     */
+    private Range findOverlap(Range range) {
+        Range probe = new Range(Integer.MAX_VALUE, range._first, Long.MAX_VALUE);
+        Range before = _ranges.floor(probe);
+        if (before != null && before.overlaps(range)) {
+            return before;
+        }
+        Range after = _ranges.higher(probe);
+        if (after != null && after.overlaps(range)) {
+            return after;
+        }
+        return null;
+    }
+
+    /**
+     * Time range of a slot.
+     *
+     */
+    static class Range implements Comparable<Range> {
+        final int  _idx;
+        final long _first;
+        final long _last;
+
+        Range(int idx, long first, long last) {
+            _idx = idx;
+            _first = first;
+            _last = last;
+        }
+
+        boolean overlaps(Range other) {
+            return other._first < _last && _first < other._last;
+        }
+
+        @Override
+        public int compareTo(Range o) {
+            if (_first != o._first) return _first < o._first ? -1 : 1;
+            if (_last  != o._last)  return _last  < o._last  ? -1 : 1;
+            if (_idx   != o._idx)   return _idx   < o._idx   ? -1 : 1;
+            return 0;
+        }
+
+        public String toString() {
+            return "Slot-" + _idx + " [" + _first + ":" + _last + "]";
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package xstream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xstream.util.Assert;
+
+/**
+ * Fetches slots of a readable series ahead of the slot being read.
+ * <br>
+ * While the events of a slot are read, the next few slots are fetched
+ * from the store on a small pool of threads shared by all series. A scan
+ * waits for the store only if it reads the events faster than the slots
+ * can be fetched.
+ * <br>
+ * Slots are fetched in batches by {@link TimeSeries#findSlots(java.util.Collection,
+ * Projection) primary key}, so fetched slots are cached as well. Slots
+ * fetched ahead of a scan that is abandoned are discarded.
+ * <br>
+ * A prefetcher is not thread-safe.
+ *
+ * @author pinaki poddar
+ *
+ */
+class SlotPrefetcher implements Iterator<Slot> {
+    private final TimeSeries _series;
+    private final Iterator<Integer> _indices;
+    private final Projection _projection;
+    private final int _depth;
+    private final ArrayDeque<Pending> _pending = new ArrayDeque<Pending>();
+
+    public static int PREFETCH_THREAD_COUNT = 4;
+
+    private static ExecutorService _pool;
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param series series of the slots
+     * @param indices indices of slots in the order they are read
+     * @param projection properties to be read. null for all.
+     * @param depth number of slots to be fetched ahead of the slot being
+     * read. 0 fetches each slot when it is read.
+     */
+    SlotPrefetcher(TimeSeries series, Iterator<Integer> indices,
+            Projection projection, int depth) {
+        Assert.assertTrue(depth >= 0, new IllegalArgumentException(
+                "read ahead " + depth + " must not be negative"));
+        _series = series;
+        _indices = indices;
+        _projection = projection;
+        _depth = depth;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !_pending.isEmpty() || _indices.hasNext();
+    }
+
+    /**
+     * Gets the next slot, waiting for it to be fetched.
+     *
+     * @return null if the slot does not exist
+     */
+    @Override
+    public Slot next() {
+        if (_depth == 0) {
+            return _series.findSlot(_indices.next(), false, _projection);
+        }
+        fill();
+        Pending next = _pending.poll();
+        if (next == null) throw new NoSuchElementException();
+        fill();
+        try {
+            return next._batch.get().get(next._idx);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new RuntimeException("failed to fetch slot of " + _series, cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while fetching slot of " + _series, ex);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Submits fetch of the slots that are due once half of the slots
+     * ahead have been read. The slots of a fetch are read from the store
+     * in a single batch. Once the slot being read has been taken, at most
+     * depth slots are in flight.
+     */
+    private void fill() {
+        if (_pending.size() > _depth/2) return;
+        final List<Integer> indices = new ArrayList<Integer>();
+        while (_pending.size() + indices.size() < _depth && _indices.hasNext()) {
+            indices.add(_indices.next());
+        }
+        if (indices.isEmpty()) return;
+        Future<Map<Integer, Slot>> batch = pool().submit(new Callable<Map<Integer, Slot>>() {
+            @Override
+            public Map<Integer, Slot> call() {
+                return _series.findSlots(indices, _projection);
+            }
+        });
+        for (Integer idx : indices) {
+            _pending.add(new Pending(idx, batch));
+        }
+    }
+
+    private static synchronized ExecutorService pool() {
+        if (_pool == null) {
+            _pool = Executors.newFixedThreadPool(PREFETCH_THREAD_COUNT, new ThreadFactory() {
+                private final AtomicInteger _count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "prefetch-" + _count.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return _pool;
+    }
+
+    public String toString() {
+        return "SlotPrefetcher[" + _series.getName() + " depth " + _depth
+                + " pending " + _pending.size() + "]";
+    }
+
+    /**
+     * A slot being fetched in a batch.
+     */
+    private static class Pending {
+        final int _idx;
+        final Future<Map<Integer, Slot>> _batch;
+
+        Pending(int idx, Future<Map<Integer, Slot>> batch) {
+            _idx = idx;
+            _batch = batch;
+        }
+    }
+}
@@ -6,19 +6,29 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import oracle.kv.Consistency;
+import oracle.kv.Direction;
 import oracle.kv.KVStore;
 import oracle.kv.query.ExecuteOptions;
 import oracle.kv.table.ArrayValue;
 import oracle.kv.table.FieldDef;
+import oracle.kv.table.FieldValue;
+import oracle.kv.table.PrimaryKey;
+import oracle.kv.table.ReadOptions;
 import oracle.kv.table.RecordDef;
 import oracle.kv.table.RecordValue;
 import oracle.kv.table.Row;
 import oracle.kv.table.Table;
 import oracle.kv.table.TableIterator;
+import oracle.kv.table.TableIteratorOptions;
 import xstream.util.Assert;
 import xstream.util.NoSQLURL;
 
@@ -36,6 +46,10 @@ public abstract class TimeSeries implements Externalizable {
     private transient final Table _table; // table where series data is stored
     protected transient final Row _metadata; // row that describes the series
     private transient final  EventMetadata _eventMetadata; // definition of event
+    private transient final boolean _compact; // events of a slot are encoded in binary
+    private transient final long _interval; // interval of a uniform series or -1
+    private transient final ReadOptions _slotReadOption; // consistency of reading a slot
+    private transient final TableIteratorOptions _slotIteratorOption;
     // current slot where event will be read from or written to
     private transient Slot _currentSlot;
     private transient boolean _isClosed;
@@ -43,8 +57,23 @@ public abstract class TimeSeries implements Externalizable {
     
     public static long UNDEFINED_TIMESTAMP = -1;
     
+    // slot indices of each write shard are in a disjoint range of this size
+    static final int SHARD_SLOT_RANGE = 1 << 24;
+    static final int MAX_SHARD = Integer.MAX_VALUE / SHARD_SLOT_RANGE;
+    
     public static final Logger _logger = Logger.getLogger(TimeSeries.class.getName());
     
+    // a reader reads slots from any replica
+    static final ReadOptions SLOT_READ_OPTION = new ReadOptions(
+            Consistency.NONE_REQUIRED, 0, null);
+    static final TableIteratorOptions SLOT_ITERATOR_OPTION = new TableIteratorOptions(
+            Direction.UNORDERED, Consistency.NONE_REQUIRED, 0, null);
+    // a writer resumes from the slots it has written
+    static final ReadOptions WRITER_SLOT_READ_OPTION = new ReadOptions(
+            Consistency.ABSOLUTE, 0, null);
+    static final TableIteratorOptions WRITER_SLOT_ITERATOR_OPTION = new TableIteratorOptions(
+            Direction.UNORDERED, Consistency.ABSOLUTE, 0, null);
+    
     /**
      * Creates a new timeseries of given name from a row. The given row
      * contains essential metadata about the series, but not the events.
@@ -72,8 +101,14 @@ public abstract class TimeSeries implements Externalizable {
         _store = _uri.openStore();
         _metadata = metadata;
         _table = table;
+        _interval = readTimeInterval(metadata);
        _eventMetadata = new EventMetadata(createEventDefinition());
-       
+       _compact = table.getField(PACKED_EVENTS.getName()) != null;
+       if (_compact) {
+           SlotCodec.assertSupported(_eventMetadata.asRecordDef());
+       }
+       _slotReadOption = forRead ? SLOT_READ_OPTION : WRITER_SLOT_READ_OPTION;
+       _slotIteratorOption = forRead ? SLOT_ITERATOR_OPTION : WRITER_SLOT_ITERATOR_OPTION;
     }
     
     /**
@@ -115,8 +150,42 @@ public abstract class TimeSeries implements Externalizable {
     }
 
     
+    /**
+     * Affirms if events of this series are at a regular interval of time.
+     * The timestamps of events of a uniform series are not stored, but
+     * derived from the first timestamp of a slot and the position of an
+     * event in the slot.
+     */
     boolean isUniform() {
-        return false;
+        return _interval > 0;
+    }
+    
+    /**
+     * Gets the interval of time between consecutive events of a 
+     * {@link #isUniform() uniform} series.
+     * 
+     * @return interval in milliseconds or -1 if the series is not uniform
+     */
+    public long getTimeInterval() {
+        return _interval;
+    }
+    
+    private static long readTimeInterval(Row metadata) {
+        FieldValue uniform = metadata.get(INTERVAL_IS_UNIFORM.getName());
+        FieldValue interval = metadata.get(TIME_INTERVAL.getName());
+        if (uniform == null || uniform.isNull() || uniform.asLong().get() == 0
+         || interval == null || interval.isNull()) {
+            return -1;
+        }
+        return interval.asLong().get();
+    }
+    
+    /**
+     * Affirms if events of a slot are stored in {@link SlotCodec compact}
+     * binary form. The form is decided when the series is created.
+     */
+    boolean isCompact() {
+        return _compact;
     }
     
     public final NoSQLURL getURL() {
@@ -193,24 +262,90 @@ public abstract class TimeSeries implements Externalizable {
      * @return the current slot if it has the same index.
      */
     protected Slot findSlot(int idx, boolean mustExist) {
+        return findSlot(idx, mustExist, null);
+    }
+    
+    /**
+     * Returns a slot at given index with values of projected properties
+     * only. The slot is read by its primary key.
+     * 
+     * @param projection properties to be read. null for all.
+     * @see #findSlot(int, boolean)
+     */
+    Slot findSlot(int idx, boolean mustExist, Projection projection) {
         if (_currentSlot != null && _currentSlot.getIndex() == idx) {
             return _currentSlot;
         }
-        String sql = "SELECT *  FROM " + _table.getName() 
-                + " WHERE " + SLOT_INDEX + "=" + idx;
-        TableIterator<RecordValue> iterator = query(sql, Consistency.NONE_REQUIRED);
-        if (iterator.hasNext()) {
-            RecordValue record = iterator.next();
-            Slot slot = new Slot(this, asRow(record));
-            slot.previous(_currentSlot);
+        Slot slot = readSlot(idx, projection);
+        if (slot != null) {
             return slot;
         }
         if (mustExist) {
-            throw new ArrayIndexOutOfBoundsException("block index " + idx + " not present. SQL:" + sql);
+            throw new ArrayIndexOutOfBoundsException("block index " + idx 
+                    + " not present in " + _table.getName());
         } else {
             return null;
         }
     }
+    
+    /**
+     * Returns slots at given indices. The slots are read by their primary
+     * keys in a single batch rather than one by one.
+     * 
+     * @param indices indices of slots
+     * @param projection properties to be read. null for all.
+     * @return slots indexed by slot index. A slot that does not exist 
+     * is absent.
+     */
+    Map<Integer, Slot> findSlots(Collection<Integer> indices, Projection projection) {
+        Map<Integer, Slot> slots = new HashMap<Integer, Slot>();
+        List<PrimaryKey> keys = new ArrayList<PrimaryKey>();
+        for (Integer idx : indices) {
+            if (_currentSlot != null && _currentSlot.getIndex() == idx) {
+                slots.put(idx, _currentSlot);
+            } else {
+                keys.add(slotKey(idx));
+            }
+        }
+        if (keys.size() == 1) {
+            Slot slot = readSlot(SLOT_INDEX.getInt(keys.get(0)), projection);
+            if (slot != null) slots.put(slot.getIndex(), slot);
+            return slots;
+        }
+        if (keys.isEmpty()) return slots;
+        TableIterator<Row> rows = _store.getTableAPI().tableIterator(
+                keys.iterator(), null, _slotIteratorOption);
+        try {
+            while (rows.hasNext()) {
+                Slot slot = new Slot(this, rows.next(), projection);
+                slots.put(slot.getIndex(), slot);
+            }
+        } finally {
+            rows.close();
+        }
+        return slots;
+    }
+    
+    /**
+     * Reads a slot from the store by its primary key.
+     * 
+     * @return null if the slot does not exist
+     */
+    private Slot readSlot(int idx, Projection projection) {
+        Row row = _store.getTableAPI().get(slotKey(idx), _slotReadOption);
+        if (row == null) {
+            return null;
+        }
+        Slot slot = new Slot(this, row, projection);
+        slot.previous(_currentSlot);
+        return slot;
+    }
+    
+    private PrimaryKey slotKey(int idx) {
+        PrimaryKey key = _table.createPrimaryKey();
+        SLOT_INDEX.set(key, idx);
+        return key;
+    }
 
     /**
      * Finds a slot at given 0-based index.
@@ -404,6 +539,94 @@ public abstract class TimeSeries implements Externalizable {
         _timeOrderStrict = flag;
     }
     
+    /**
+     * Gets the in-memory index of slot time ranges used to detect
+     * overlapping slots when a slot is flushed.
+     * 
+     * @return null if slots are checked for overlap against the database.
+     */
+    SlotIntervalIndex getSlotIntervals() {
+        return null;
+    }
+    
+    /**
+     * Gets the write shard whose slots are written by this series.
+     * 
+     * @return -1 if this series does not write 
+     */
+    int getShard() {
+        return -1;
+    }
+    
+    /**
+     * Gets the write shard of a slot.
+     */
+    static int shardOf(int slotIdx) {
+        return slotIdx / SHARD_SLOT_RANGE;
+    }
+    
+    /**
+     * Gets a query condition that selects the slots of the 
+     * {@link #getShard() shard} of this series.
+     * 
+     * @return a condition to be added to other conditions with AND or an
+     * empty string if this series does not write
+     */
+    String shardCondition() {
+        int shard = getShard();
+        if (shard < 0) return "";
+        long base = (long)shard * SHARD_SLOT_RANGE;
+        return " AND " + SLOT_INDEX.getName() + " >= " + base
+             + " AND " + SLOT_INDEX.getName() + " < " + (base + SHARD_SLOT_RANGE);
+    }
+    
+    /**
+     * Gets the estimated size in bytes at which a slot is full.
+     * 
+     * @return -1 if slots are full only by number of events
+     */
+    int getSlotByteSize() {
+        return -1;
+    }
+    
+    // ratio of encoded to estimated plain size of the last compact slot
+    private volatile double _packedRatio = 1;
+    
+    /**
+     * Gets the ratio of encoded to plain size of events of the compact slot 
+     * encoded last. The size of a compact slot is estimated by this ratio.
+     * 
+     * @return 1 if no slot has been encoded
+     */
+    double getPackedRatio() {
+        return _packedRatio;
+    }
+    
+    void setPackedRatio(double ratio) {
+        _packedRatio = ratio;
+    }
+    
+    /**
+     * Gets the minimum number of events of a slot full by size.
+     */
+    int getSlotMinEvents() {
+        return 1;
+    }
+    
+    boolean _overlapCheckStrict = false;
+    boolean isOverlapCheckStrict() {
+        return _overlapCheckStrict;
+    }
+    /**
+     * Sets whether a slot is checked for overlap against the database
+     * in addition to the {@link #getSlotIntervals() in-memory index}.
+     * 
+     * @param flag if true, every flushed slot is validated by a query.
+     */
+    public void setOverlapCheckStrict(boolean flag) {
+        _overlapCheckStrict = flag;
+    }
+    
     boolean _autoSortEvent = true;
     boolean isAutoSortEvent() {
         return _autoSortEvent;
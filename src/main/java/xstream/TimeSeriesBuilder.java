@@ -3,13 +3,17 @@ package xstream;
 
 import static xstream.TimeSeriesSchema.EVENT_COUNT;
 import static xstream.TimeSeriesSchema.EVENT_LIMIT;
+import static xstream.TimeSeriesSchema.INTERVAL_IS_UNIFORM;
 import static xstream.TimeSeriesSchema.READ_SLOT_INDEX;
 import static xstream.TimeSeriesSchema.SERIES_NAME;
 import static xstream.TimeSeriesSchema.TIMESTAMP_FIRST;
 import static xstream.TimeSeriesSchema.TIMESTAMP_LAST;
+import static xstream.TimeSeriesSchema.TIME_INTERVAL;
 import static xstream.TimeSeriesSchema.WRITE_SLOT_INDEX;
 import static xstream.TimeSeriesSchema.SLOT_COUNT;
 
+import java.io.File;
+
 import oracle.kv.KVStore;
 import oracle.kv.table.Row;
 import oracle.kv.table.Table;
@@ -28,6 +32,20 @@ public class TimeSeriesBuilder {
     private String _seriesURL;
     private String[] _fieldDefs;
     private int _slotEventLimit = -1;
+    private int _flushQueueCapacity = -1;
+    private int _flusherCount = SlotFlusher.DEFAULT_FLUSHER_COUNT;
+    private boolean _compact;
+    private long _uniformInterval = -1;
+    private int _writeShard;
+    private int _slotByteSize = -1;
+    private int _slotMinEvents = 1;
+    private long _reorderWindow = -1;
+    private int _reorderEventCount = -1;
+    private File _walDir;
+    private int _metadataUpdateSlots = -1;
+    private long _metadataUpdateInterval = -1;
+    private SlotCache _slotCache = SlotCache.getShared();
+    private int _readAhead = -1;
     
     /**
      * sets URL for the timeseries.
@@ -86,6 +104,184 @@ public class TimeSeriesBuilder {
         return this;
     }
     
+    /**
+     * Declares that full slots of a writable timeseries are flushed
+     * asynchronously by background threads.
+     * 
+     * @param queueCapacity maximum number of full slots waiting to be flushed.
+     * @param flusherCount number of background threads that flush slots.
+     * 
+     * @return this same builder.
+     * @see WritableTimeSeries#setAsyncFlush(int, int)
+     */
+    public TimeSeriesBuilder withAsyncFlush(int queueCapacity, int flusherCount) {
+        Assert.assertTrue(queueCapacity > 0, new IllegalArgumentException());
+        Assert.assertTrue(flusherCount > 0, new IllegalArgumentException());
+        _flushQueueCapacity = queueCapacity;
+        _flusherCount = flusherCount;
+        return this;
+    }
+    
+    /**
+     * Declares that events of a slot are stored in compact binary form
+     * rather than as an array of records. Timestamps and numeric values 
+     * are encoded as differences from previous values, which is much
+     * smaller for regular data.
+     * <br>
+     * Only applies to a series being {@link #create() created}. Event
+     * properties must be of type DOUBLE, INTEGER, LONG or STRING, else
+     * the series is not created.
+     * 
+     * @return this same builder.
+     */
+    public TimeSeriesBuilder withCompactSlots() {
+        _compact = true;
+        return this;
+    }
+    
+    /**
+     * Declares the cache of slots read by a readable timeseries. By default,
+     * all readable series share a {@link SlotCache#getShared() cache}.
+     * 
+     * @param cache a slot cache. null to read every slot from the store.
+     * 
+     * @return this same builder.
+     * @see ReadableTimeSeries#setSlotCache(SlotCache)
+     */
+    public TimeSeriesBuilder withSlotCache(SlotCache cache) {
+        _slotCache = cache;
+        return this;
+    }
+    
+    /**
+     * Declares the number of slots a readable timeseries fetches ahead of
+     * the slot being read.
+     * 
+     * @param slots number of slots. 0 fetches each slot only when it is read.
+     * 
+     * @return this same builder.
+     * @see ReadableTimeSeries#setReadAhead(int)
+     */
+    public TimeSeriesBuilder withReadAhead(int slots) {
+        Assert.assertTrue(slots >= 0, new IllegalArgumentException());
+        _readAhead = slots;
+        return this;
+    }
+    
+    /**
+     * Declares the write shard of a writable timeseries. 
+     * <br>
+     * Writers of different shards of the same series, such as writers in
+     * different processes, write slots in disjoint ranges of slot index
+     * without coordination. A readable timeseries merges the events of 
+     * all shards in temporal order.
+     * 
+     * @param shard a shard number between 0 and 127. 0 by default.
+     * @return this same builder.
+     */
+    public TimeSeriesBuilder withWriteShard(int shard) {
+        Assert.assertTrue(shard >= 0 && shard <= TimeSeries.MAX_SHARD, 
+                new IllegalArgumentException("write shard " + shard 
+                + " must be between 0 and " + TimeSeries.MAX_SHARD));
+        _writeShard = shard;
+        return this;
+    }
+    
+    /**
+     * Declares a target size in bytes of a slot of a writable timeseries.
+     * The {@link #withSlotEventLimit(int) event limit} is the maximum 
+     * number of events of a slot.
+     * 
+     * @param targetBytes target size of a slot in bytes
+     * @param minEvents minimum number of events of a slot
+     * @return this same builder.
+     * @see WritableTimeSeries#setSlotByteSize(int, int)
+     */
+    public TimeSeriesBuilder withSlotByteSize(int targetBytes, int minEvents) {
+        Assert.assertTrue(targetBytes > 0, new IllegalArgumentException());
+        Assert.assertTrue(minEvents > 0, new IllegalArgumentException());
+        _slotByteSize = targetBytes;
+        _slotMinEvents = minEvents;
+        return this;
+    }
+    
+    /**
+     * Declares that events of the timeseries to be {@link #create() created}
+     * are at a regular interval of time. Timestamps of the events are not
+     * stored, and events between given time are located by arithmetic.
+     * 
+     * @param interval interval between consecutive events in milliseconds
+     * @return this same builder.
+     */
+    public TimeSeriesBuilder withUniformInterval(long interval) {
+        Assert.assertTrue(interval > 0, new IllegalArgumentException(
+                "uniform interval " + interval + " must be positive"));
+        _uniformInterval = interval;
+        return this;
+    }
+    
+    /**
+     * Declares a window of time in which late events written to a 
+     * writable timeseries are put in temporal order.
+     * 
+     * @param timeSpan time span of the window in milliseconds
+     * @return this same builder.
+     * @see WritableTimeSeries#setReorderWindow(long)
+     */
+    public TimeSeriesBuilder withReorderWindow(long timeSpan) {
+        Assert.assertTrue(timeSpan >= 0, new IllegalArgumentException());
+        _reorderWindow = timeSpan;
+        _reorderEventCount = -1;
+        return this;
+    }
+    
+    /**
+     * Declares a window of a number of recent events written to a 
+     * writable timeseries that are put in temporal order.
+     * 
+     * @param eventCount number of events in the window
+     * @return this same builder.
+     * @see WritableTimeSeries#setReorderEventCount(int)
+     */
+    public TimeSeriesBuilder withReorderEventCount(int eventCount) {
+        Assert.assertTrue(eventCount > 0, new IllegalArgumentException());
+        _reorderEventCount = eventCount;
+        _reorderWindow = -1;
+        return this;
+    }
+    
+    /**
+     * Declares how often a writable timeseries adds the aggregates of 
+     * flushed slots to the series metadata in the store.
+     * 
+     * @param slotCount number of flushed slots between updates
+     * @param intervalMs maximum interval in milliseconds between updates
+     * @return this same builder.
+     * @see WritableTimeSeries#setMetadataUpdate(int, long)
+     */
+    public TimeSeriesBuilder withMetadataUpdate(int slotCount, long intervalMs) {
+        Assert.assertTrue(slotCount > 0, new IllegalArgumentException());
+        Assert.assertTrue(intervalMs >= 0, new IllegalArgumentException());
+        _metadataUpdateSlots = slotCount;
+        _metadataUpdateInterval = intervalMs;
+        return this;
+    }
+    
+    /**
+     * Declares a directory where a writable timeseries logs events that 
+     * are not yet flushed. Events logged by an earlier writer that did not
+     * close are replayed when the series is {@link #openForWrite() opened}.
+     * 
+     * @param dir a local directory
+     * @return this same builder.
+     * @see WritableTimeSeries#setWriteAheadLog(File)
+     */
+    public TimeSeriesBuilder withWriteAheadLog(File dir) {
+        Assert.assertNotNull(dir, new IllegalArgumentException());
+        _walDir = dir;
+        return this;
+    }
+    
     /**
      * Opens an existing timeseries to write more events. The events are added at
      * the end of the series.
@@ -99,9 +295,9 @@ public class TimeSeriesBuilder {
         Table seriesTable = registry.getSeriesTable(seriesName, true);
         Row row = registry.getSeriesRow(seriesName, true);
         
-        WritableTimeSeries ws = new WritableTimeSeries(_seriesURL, row, seriesTable);
+        WritableTimeSeries ws = new WritableTimeSeries(_seriesURL, row, seriesTable, _writeShard);
         // match(ws)
-        return ws;
+        return configure(ws);
     }
     
     /**
@@ -117,6 +313,9 @@ public class TimeSeriesBuilder {
         if (seriesRow != null) {
             throw new RuntimeException(seriesUrl + " already exists");
         }
+        if (_compact) {
+            SlotCodec.assertSupported(_fieldDefs);
+        }
         WritableTimeSeries series = null;
             Row template = registry.getRegistryTable().createRow();
             SERIES_NAME.set(template, seriesName);
@@ -128,6 +327,10 @@ public class TimeSeriesBuilder {
             TIMESTAMP_LAST.set(template, TimeSeries.UNDEFINED_TIMESTAMP);
             READ_SLOT_INDEX.set(template, 0);
             WRITE_SLOT_INDEX.set(template, 0);
+            if (_uniformInterval > 0) {
+                INTERVAL_IS_UNIFORM.set(template, 1L);
+                TIME_INTERVAL.set(template, _uniformInterval);
+            }
             new RMWLock().update(store, 
                     template, new Updater() {
                         @Override
@@ -135,11 +338,35 @@ public class TimeSeriesBuilder {
                         }
                     });
             Table seriesTable = registry.defineSeriesTable(seriesName,
-                    StringHelper.join(',', _fieldDefs).toString());
-            series = new WritableTimeSeries(_seriesURL, template, seriesTable);
+                    StringHelper.join(',', _fieldDefs).toString(), _compact);
+            series = new WritableTimeSeries(_seriesURL, template, seriesTable, _writeShard);
         
         // match (ws)
         series.flush(false);
+        return configure(series);
+    }
+    
+    /**
+     * Configures a writable series with options of this builder.
+     */
+    private WritableTimeSeries configure(WritableTimeSeries series) {
+        if (_slotByteSize > 0) {
+            series.setSlotByteSize(_slotByteSize, _slotMinEvents);
+        }
+        if (_metadataUpdateSlots > 0) {
+            series.setMetadataUpdate(_metadataUpdateSlots, _metadataUpdateInterval);
+        }
+        if (_flushQueueCapacity > 0) {
+            series.setAsyncFlush(_flushQueueCapacity, _flusherCount);
+        }
+        if (_reorderWindow >= 0) {
+            series.setReorderWindow(_reorderWindow);
+        } else if (_reorderEventCount > 0) {
+            series.setReorderEventCount(_reorderEventCount);
+        }
+        if (_walDir != null) {
+            series.setWriteAheadLog(_walDir);
+        }
         return series;
     }
 
@@ -171,6 +398,10 @@ public class TimeSeriesBuilder {
         Row row = registry.getSeriesRow(seriesName, true);
         ReadableTimeSeries series = 
                 new ReadableTimeSeries(_seriesURL, row, seriesTable);
+        series.setSlotCache(_slotCache);
+        if (_readAhead >= 0) {
+            series.setReadAhead(_readAhead);
+        }
         //match(series);
         return series;
     }
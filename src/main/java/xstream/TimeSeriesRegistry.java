@@ -137,6 +137,19 @@ class TimeSeriesRegistry  implements Externalizable {
      * @return a table where registry content is stored.
      */
     public Table defineSeriesTable(String seriesName, String fieldDefs) {
+        return defineSeriesTable(seriesName, fieldDefs, false);
+    }
+    
+    /**
+     * Defines a database table to store event data in a series.
+     * @param name name of the series table.
+     * @param a comma-separated string where each part is a definition
+     * of database column.
+     * @param compact if true, the table has a binary column where events 
+     * of a slot are stored in {@link SlotCodec compact form}.
+     * @return a table where registry content is stored.
+     */
+    public Table defineSeriesTable(String seriesName, String fieldDefs, boolean compact) {
         Table t = _store.getTableAPI().getTable(seriesName);
         if (t != null) return t;
         
@@ -149,6 +162,7 @@ class TimeSeriesRegistry  implements Externalizable {
         String ddl = "CREATE TABLE IF NOT EXISTS " + seriesName 
                + " (" + getDefinitions(SLOT_FIELDS)
                + "," + EVENTS.getName() + eventsArray      
+               + (compact ? ", " + PACKED_EVENTS.getName() + " " + PACKED_EVENTS.getType() : "")
                + ", PRIMARY KEY (" + SLOT_INDEX.getName() + "))";
         _logger.log(Level.FINE, "defining  " + ddl);
         _store.executeSync(ddl);
@@ -41,6 +41,7 @@ class TimeSeriesSchema {
     public static final Field FIRST_EVENT_INDEX = new Field("firstIdx",    Type.INTEGER);// index of first event in a block < no of events in a block
     public static final Field EVENT_LIMIT       = new Field("limit",       Type.INTEGER);   // maximum capacity of events in a block 
     public static final Field EVENTS            = new Field("events",      Type.ARRAY);   // event data  
+    public static final Field PACKED_EVENTS     = new Field("packed",      Type.BINARY);  // event data in compact slots
     
     public static final Field NEXT_SLOT = new Field("next", Type.INTEGER);
     public static final Field PREV_SLOT = new Field("prev", Type.INTEGER);
@@ -6,13 +6,19 @@ import static xstream.TimeSeriesSchema.TIMESTAMP;
 import static xstream.TimeSeriesSchema.TIMESTAMP_FIRST;
 import static xstream.TimeSeriesSchema.TIMESTAMP_LAST;
 
+import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 
 import oracle.kv.table.RecordDef;
+import oracle.kv.table.RecordValue;
 import oracle.kv.table.Row;
 import oracle.kv.table.Table;
 import xstream.util.Assert;
+import xstream.util.RMWLock;
 import xstream.util.Sequence;
 import xstream.util.SequenceBuilder;
 
@@ -40,22 +46,65 @@ import xstream.util.SequenceBuilder;
  */
 public class WritableTimeSeries extends TimeSeries {
     Sequence _slotSequence;
+    // write shard whose disjoint range of slot indices this writer owns
+    private final int _shard;
+    // flushes full slots in background. null if slots are flushed inline
+    private SlotFlusher _flusher;
+    // time ranges of slots to detect overlap without querying database
+    private final SlotIntervalIndex _slotIntervals;
+    // orders late events before they are added to a slot. null if not used
+    private ReorderBuffer _reorder;
+    // logs events of slots not yet flushed. null if not used
+    private WriteAheadLog _wal;
+    // aggregates of flushed slots not yet added to metadata in the store
+    private final MetadataDelta _metadataDelta = new MetadataDelta();
+    private final RMWLock _metadataLock = new RMWLock();
+    private int _metadataUpdateSlots = DEFAULT_METADATA_UPDATE_SLOTS;
+    private long _metadataUpdateInterval = DEFAULT_METADATA_UPDATE_INTERVAL_MS;
+    private long _lastMetadataUpdate = System.currentTimeMillis();
+    private int _slotByteSize = -1;
+    private int _slotMinEvents = 1;
+    // timestamp of the last event written to a uniform series
+    private long _lastTimestamp;
+    
+    public static int  DEFAULT_METADATA_UPDATE_SLOTS = 16;
+    public static long DEFAULT_METADATA_UPDATE_INTERVAL_MS = 1000;
     /**
      * Creates a timeseries.  
      * @param seriesURL
      * @param fieldDefs
      */
     WritableTimeSeries(String seriesURL, Row row, Table table) {
+        this(seriesURL, row, table, 0);
+    }
+    
+    /**
+     * Creates a timeseries that writes to given shard.
+     * <br>
+     * Each write shard has its own slot sequence and writes slots in a 
+     * disjoint range of slot indices. Slots are checked for overlap only
+     * with the slots of the same shard, so writers of different shards 
+     * write without coordination, and their events are merged in temporal
+     * order when read.
+     * 
+     * @param shard a write shard. The shard 0 is the shard of a series
+     * written by a single writer.
+     */
+    WritableTimeSeries(String seriesURL, Row row, Table table, int shard) {
         super(seriesURL, row, table, false);
+        Assert.assertTrue(shard >= 0 && shard <= MAX_SHARD, new IllegalArgumentException(
+                "write shard " + shard + " must be between 0 and " + MAX_SHARD));
+        _shard = shard;
+        _slotIntervals = SlotIntervalIndex.load(this);
         
         _slotSequence = new SequenceBuilder()
                 .withStore(_store)
-                .withName(getName()+ "_slots")
+                .withName(getName()+ "_slots" + (shard == 0 ? "" : "_" + shard))
                 .withIncrement(40)
                 .build();
         
         
-        int slotIdx = (int)_slotSequence.current();
+        int slotIdx = toSlotIndex(_slotSequence.current());
         
         System.err.println(this + " current slot " + slotIdx);
         Slot slot = findSlot(slotIdx, false);
@@ -65,9 +114,230 @@ public class WritableTimeSeries extends TimeSeries {
             slot = emptySlot(slotIdx);
         }
         setCurrentSlot(slot);
+        _lastTimestamp = shard == 0 
+                ? Math.max(TIMESTAMP_LAST.getLong(_metadata), slot.getLastEventTimestamp())
+                : slot.getLastEventTimestamp();
+    }
+    
+    /**
+     * Gets the write shard of this writer.
+     */
+    public int getWriteShard() {
+        return _shard;
+    }
+    
+    @Override
+    int getShard() {
+        return _shard;
+    }
+    
+    /**
+     * Converts a value of the slot sequence of this writer to a slot index 
+     * in the range of its shard.
+     */
+    private int toSlotIndex(long sequence) {
+        Assert.assertTrue(sequence < SHARD_SLOT_RANGE, new IllegalStateException(
+                "slot sequence " + sequence + " of write shard " + _shard 
+                + " exceeds " + SHARD_SLOT_RANGE));
+        return _shard * SHARD_SLOT_RANGE + (int)sequence;
+    }
+    
+    /**
+     * Flushes full slots asynchronously.
+     * <br>
+     * By default, the writing thread flushes a slot as soon as it is full
+     * and hence waits for the store before it can write the next event.
+     * With asynchronous flush, a full slot is handed over to a bounded
+     * queue and background threads flush the queued slots in batches
+     * with one metadata update per batch. {@link #close()} waits for the
+     * queue to be drained.
+     * 
+     * @param queueCapacity maximum number of full slots waiting to be flushed.
+     * The writer blocks when the queue is full.
+     * @param flusherCount number of background threads to flush slots
+     */
+    public void setAsyncFlush(int queueCapacity, int flusherCount) {
+        Assert.assertNull(_flusher, new IllegalStateException(
+                "asynchronous flush is already enabled for " + this));
+        _flusher = new SlotFlusher(this, queueCapacity, flusherCount);
+    }
+    
+    public boolean isAsyncFlush() {
+        return _flusher != null;
+    }
+    
+    /**
+     * Sets how often the aggregates of flushed slots are added to the 
+     * series metadata in the store. The aggregates are added after the 
+     * given number of slots have been flushed, or at the first flush after 
+     * the given interval, and when the series is {@link #close() closed}.
+     * Until then, the metadata in the store lags behind this writer.
+     * 
+     * @param slotCount number of flushed slots. 1 updates the metadata
+     * after every slot.
+     * @param intervalMs maximum interval in milliseconds between updates
+     */
+    public void setMetadataUpdate(int slotCount, long intervalMs) {
+        Assert.assertTrue(slotCount > 0, new IllegalArgumentException(
+                "metadata update slot count " + slotCount + " must be positive"));
+        Assert.assertTrue(intervalMs >= 0, new IllegalArgumentException(
+                "metadata update interval " + intervalMs + " must not be negative"));
+        _metadataUpdateSlots = slotCount;
+        _metadataUpdateInterval = intervalMs;
+    }
+    
+    /**
+     * Sets a window of time in which late events are put in temporal order
+     * before they are added to a slot.
+     * <br>
+     * Events are held in memory until an event later by the given time span
+     * has been written, or the series is {@link #close() closed}. An event
+     * later than the window is added to a slot as it would be without a 
+     * window.
+     * 
+     * @param timeSpan time span in milliseconds
+     */
+    public void setReorderWindow(long timeSpan) {
+        Assert.assertTrue(timeSpan >= 0, new IllegalArgumentException(
+                "reorder window " + timeSpan + " must not be negative"));
+        setReorderBuffer(new ReorderBuffer(timeSpan, 0));
+    }
+    
+    /**
+     * Sets a window of a number of recent events that are put in temporal
+     * order before they are added to a slot.
+     * 
+     * @param eventCount maximum number of events held in memory
+     * @see #setReorderWindow(long)
+     */
+    public void setReorderEventCount(int eventCount) {
+        Assert.assertTrue(eventCount > 0, new IllegalArgumentException(
+                "reorder event count " + eventCount + " must be positive"));
+        setReorderBuffer(new ReorderBuffer(-1, eventCount));
+    }
+    
+    private void setReorderBuffer(ReorderBuffer buffer) {
+        Assert.assertFalse(isUniform(), new IllegalStateException(
+                "reorder window can not be set for uniform series " + this));
+        Assert.assertTrue(_reorder == null || _reorder.isEmpty(), 
+                new IllegalStateException("reorder window of " + this 
+                        + " can not be changed while it holds events"));
+        _reorder = buffer;
+    }
+    
+    /**
+     * Logs events to local files before they are flushed to the store.
+     * <br>
+     * Events of the slots that have not been flushed are appended to 
+     * memory-mapped segment files under the given directory. A segment is
+     * deleted once its slot has been flushed and the aggregates of the slot
+     * have been {@link #setMetadataUpdate(int, long) recorded} in the series
+     * metadata. Segments left by a writer that did not {@link #close() close}
+     * are replayed first: their events are added to the slots and the slots
+     * are flushed, and the aggregates of slots that had been flushed are
+     * recorded.
+     * <br>
+     * Events held in a {@link #setReorderWindow(long) reorder window} are
+     * logged when they are added to a slot.
+     * 
+     * @param dir directory of the log. Each series logs to a subdirectory
+     * of its own name and write shard.
+     */
+    public void setWriteAheadLog(File dir) {
+        Assert.assertNull(_wal, new IllegalStateException(
+                "write-ahead log is already enabled for " + this));
+        WriteAheadLog wal = new WriteAheadLog(new File(dir, 
+                getName() + (_shard == 0 ? "" : "-shard" + _shard)), 
+                getEventDefinition());
+        replay(wal);
+        _wal = wal;
     }
     
+    public boolean isWriteAheadLogged() {
+        return _wal != null;
+    }
     
+    /**
+     * Adds events of the segments of given log to their slots and flushes
+     * the slots. A segment whose slot has all its events in the store had
+     * been flushed, but the aggregates of the slot may not have been 
+     * recorded in the series metadata, so they are recorded again. The
+     * segments are discarded once the aggregates are recorded.
+     */
+    private void replay(WriteAheadLog wal) {
+        List<WriteAheadLog.Replay> replays = wal.replay();
+        for (WriteAheadLog.Replay replay : replays) {
+            Slot current = getCurrentSlot();
+            Slot slot = current != null && current.getIndex() == replay._slot
+                    ? current : findSlot(replay._slot, false);
+            if (slot == null) {
+                slot = emptySlot(replay._slot);
+            }
+            long logged = replay._baseCount + replay._events.size();
+            if (replay.isFlushed() 
+             || (slot.getEventCount() == logged && !replay._events.isEmpty())) {
+                if (slot.getEventCount() >= logged) {
+                    _logger.info("recording aggregates of flushed slot " + replay._slot 
+                            + " from " + wal.getDirectory());
+                    synchronized (_metadata) {
+                        addAggregate(slot);
+                    }
+                }
+            } else if (slot.getEventCount() == replay._baseCount && !replay._events.isEmpty()) {
+                _logger.info("replaying " + replay._events.size() + " events of slot " 
+                        + replay._slot + " from " + wal.getDirectory());
+                for (RecordValue record : replay._events) {
+                    slot.insertEvent(getEventDefinition().newEvent(record));
+                }
+                flush(Collections.singletonList(slot), true);
+            }
+            // the next event of a uniform series follows the replayed events
+            _lastTimestamp = Math.max(_lastTimestamp, slot.getLastEventTimestamp());
+        }
+        updateMetadata();
+        for (WriteAheadLog.Replay replay : replays) {
+            wal.discard(replay);
+        }
+    }
+    
+    @Override
+    SlotIntervalIndex getSlotIntervals() {
+        return _slotIntervals;
+    }
+    
+    /**
+     * Sets a target size in bytes of the events of a slot.
+     * <br>
+     * A slot is full when the estimated size of its events in a database
+     * record reaches the target, so that slots of wide events hold fewer
+     * events and slots of narrow events hold more. The 
+     * {@link #getSlotEventLimit() event limit} of the series remains the 
+     * maximum number of events of a slot.
+     * 
+     * @param targetBytes target size of a slot in bytes
+     * @param minEvents minimum number of events of a slot regardless 
+     * of size
+     */
+    public void setSlotByteSize(int targetBytes, int minEvents) {
+        Assert.assertTrue(targetBytes > 0, new IllegalArgumentException(
+                "slot size " + targetBytes + " must be positive"));
+        Assert.assertTrue(minEvents > 0 && minEvents <= getSlotEventLimit(), 
+                new IllegalArgumentException("minimum events " + minEvents 
+                + " must be positive and not more than event limit " 
+                + getSlotEventLimit()));
+        _slotByteSize = targetBytes;
+        _slotMinEvents = minEvents;
+    }
+    
+    @Override
+    int getSlotByteSize() {
+        return _slotByteSize;
+    }
+    
+    @Override
+    int getSlotMinEvents() {
+        return _slotMinEvents;
+    }
 
     
     /**
@@ -87,7 +357,7 @@ public class WritableTimeSeries extends TimeSeries {
                 "cannot insert event to " + getName() + " because it is closed"));
         Event e = newEvent(ts, values);
         
-        getSlotToWrite().insertEvent(e);
+        insertEvent(e);
         return e;
     }
     
@@ -103,13 +373,169 @@ public class WritableTimeSeries extends TimeSeries {
         Assert.assertFalse(isClosed(), new IllegalStateException(
                 "cannot insert event to " + getName() + " because " + this + " is closed"));
         Event e = newEvent(ts, values);
-        getSlotToWrite().insertEvent(e);
+        insertEvent(e);
         return e;
     }
     
     /**
-     * Creates and populates a new event.
+     * Writes an event created by {@link #newEvent(long, Object[])}.
+     */
+    void write(Event e) {
+        Assert.assertFalse(isClosed(), new IllegalStateException(
+                "cannot insert event to " + getName() + " because " + this + " is closed"));
+        insertEvent(e);
+    }
+    
+    /**
+     * Writes event to a {@link #isUniform() uniform} time series at the
+     * interval after the last event.
      * 
+     * @param values the values of the event properties in same order as 
+     * {@link EventMetadata#getPropertyNames()}.
+     * @return the event that has been created implicitly
+     * @exception IllegalStateException if the series is not uniform or
+     * has no event yet
+     */
+    public Event writeNext(Object[] values) {
+        Assert.assertTrue(isUniform(), new IllegalStateException(
+                this + " is not uniform"));
+        Assert.assertTrue(_lastTimestamp >= 0, new IllegalStateException(
+                "first event of uniform series " + this + " must be written with timestamp"));
+        return write(_lastTimestamp + getTimeInterval(), values);
+    }
+    
+    /**
+     * Asserts that given timestamp is at the interval after the last
+     * event of a uniform series.
+     */
+    private void assertNextTimestamp(long t) {
+        if (_lastTimestamp >= 0 && t != _lastTimestamp + getTimeInterval()) {
+            throw new IllegalArgumentException("event timestamp " + t 
+                    + " is not next to last event " + _lastTimestamp 
+                    + " at interval " + getTimeInterval() + " of uniform series " + this);
+        }
+        _lastTimestamp = t;
+    }
+    
+    /**
+     * Adds given event to a slot directly or through the reorder window.
+     */
+    private void insertEvent(Event e) {
+        if (_reorder == null) {
+            insertIntoSlot(e);
+            return;
+        }
+        _reorder.add(e);
+        Event ready;
+        while ((ready = _reorder.release()) != null) {
+            insertIntoSlot(ready);
+        }
+    }
+    
+    /**
+     * Adds given event to the slot to write and to the write-ahead log.
+     */
+    private void insertIntoSlot(Event e) {
+        if (isUniform()) {
+            assertNextTimestamp(e.getTimestamp());
+        }
+        Slot slot = getSlotToWrite();
+        long count = slot.getEventCount();
+        slot.insertEvent(e);
+        if (_wal != null) {
+            _wal.append(slot.getIndex(), count, e.getRecord());
+        }
+    }
+    
+    /**
+     * Adds all events held in the reorder window to slots.
+     */
+    private void drainReorderBuffer() {
+        if (_reorder == null) return;
+        Event e;
+        while ((e = _reorder.poll()) != null) {
+            insertIntoSlot(e);
+        }
+    }
+    
+    /**
+     * Writes a batch of events to time series.
+     * <br>
+     * The values of the batch are copied to slots column by column without
+     * creating an event for each value. The batch can be
+     * {@link EventBatch#clear() cleared} and reused after this method
+     * returns.
+     *
+     * @param batch a batch created by {@link #newEventBatch(int)}.
+     * Timestamps of the batch are expected to be in temporal order.
+     * Unordered timestamps are treated as they are by {@link #write(long, Map)}.
+     * If a {@link #setReorderWindow(long) reorder window} is set, the events
+     * of the batch are written one by one through the window.
+     */
+    public void write(EventBatch batch) {
+        write(batch, 0, batch.size());
+    }
+
+    /**
+     * Writes a range of events of a batch to time series, as 
+     * {@link #write(EventBatch)} writes all events of a batch.
+     *
+     * @param batch a batch created by {@link #newEventBatch(int)}.
+     * @param from index of the first event to be written
+     * @param n number of events to be written
+     */
+    public void write(EventBatch batch, int from, int n) {
+        Assert.assertFalse(isClosed(), new IllegalStateException(
+                "cannot insert event to " + getName() + " because " + this + " is closed"));
+        Assert.assertTrue(batch.getEventDefinition() == getEventDefinition(),
+                new IllegalArgumentException("batch of events is not created by " + this));
+        Assert.assertTrue(from >= 0 && n >= 0 && from + n <= batch.size(),
+                new IllegalArgumentException("events " + from + " to " + (from + n) 
+                        + " are not within batch of " + batch.size() + " events"));
+        int to = from + n;
+        if (_reorder != null) {
+            for (int i = from; i < to; i++) {
+                insertEvent(batch.toEvent(i));
+            }
+            return;
+        }
+        if (isUniform()) {
+            long[] time = batch.getTimestamps();
+            long last = _lastTimestamp;
+            try {
+                for (int i = from; i < to; i++) {
+                    assertNextTimestamp(time[i]);
+                }
+            } catch (IllegalArgumentException ex) {
+                _lastTimestamp = last;
+                throw ex;
+            }
+        }
+        while (from < to) {
+            Slot slot = getSlotToWrite();
+            long count = slot.getEventCount();
+            int m = slot.insertEvents(batch, from, to - from);
+            if (_wal != null) {
+                _wal.append(slot.getIndex(), count, batch, from, m);
+            }
+            from += m;
+        }
+    }
+
+    /**
+     * Creates an empty batch of events to be {@link #write(EventBatch) written}
+     * to this series.
+     *
+     * @param capacity maximum number of events in the batch
+     * @return an empty batch
+     */
+    public EventBatch newEventBatch(int capacity) {
+        return new EventBatch(getEventDefinition(), capacity);
+    }
+
+    /**
+     * Creates and populates a new event.
+     *
      * @param ts timestamp of the event
      * @param values values of the event indexed by property name.
      * 
@@ -150,8 +576,14 @@ public class WritableTimeSeries extends TimeSeries {
         if (current == null || current.isFull()) {
 //            TimeSeriesRegistry registry =  TimeSeriesRegistry.getInstance(getStore());
             
-            if (current != null) this.flush(true);
-            int nextIdx = (int)_slotSequence.next();
+            if (current != null) {
+                if (_flusher != null) {
+                    _flusher.enqueue(current);
+                } else {
+                    this.flush(true);
+                }
+            }
+            int nextIdx = toSlotIndex(_slotSequence.next());
             current = emptySlot(nextIdx);
             setCurrentSlot(current);
             return current;
@@ -161,29 +593,108 @@ public class WritableTimeSeries extends TimeSeries {
 
      
      public void flush(boolean updateAggregate) {
-         Slot slot = getCurrentSlot();
-         slot.flush();
-         if (updateAggregate) {
-             SLOT_COUNT.set(_metadata, getSlotCount()+1);
-             EVENT_COUNT.set(_metadata, getEventCount() + slot.getEventCount());
-             changeTimerange(slot.getTimeRange());
+         flush(Collections.singletonList(getCurrentSlot()), updateAggregate);
+     }
+     
+     /**
+      * Flushes given slots and then adds their aggregates to the series 
+      * metadata once for all the slots. The metadata is updated in the
+      * store after a {@link #setMetadataUpdate(int, long) number of slots
+      * or an interval}.
+      * 
+      * @param slots slots to be flushed
+      * @param updateAggregate if true updates aggregate values
+      * in series metadata
+      */
+     void flush(List<Slot> slots, boolean updateAggregate) {
+         for (Slot slot : slots) {
+             slot.flush();
+         }
+         synchronized (_metadata) {
+             for (Slot slot : slots) {
+                 if (updateAggregate) {
+                     addAggregate(slot);
+                 }
+                 // the segment is deleted when the aggregates are recorded
+                 if (_wal != null) {
+                     _wal.flushed(slot.getIndex(), slot.getEventCount());
+                 }
+             }
+             if (_metadataDelta.getSlotCount() >= _metadataUpdateSlots
+              || System.currentTimeMillis() - _lastMetadataUpdate >= _metadataUpdateInterval) {
+                 updateMetadata();
+             }
+         }
+     }
+     
+     /**
+      * Adds the aggregates of a flushed slot to the metadata of this series,
+      * and to the change to be recorded in the store. Must be called with 
+      * the lock of the metadata.
+      */
+     private void addAggregate(Slot slot) {
+         SLOT_COUNT.set(_metadata, getSlotCount()+1);
+         EVENT_COUNT.set(_metadata, getEventCount() + slot.getEventCount());
+         changeTimerange(slot.getTimeRange());
+         _metadataDelta.add(slot);
+     }
+     
+     /**
+      * Adds the aggregates of the slots flushed since last update to the
+      * latest series metadata in the store. The aggregates are added with a
+      * read-modify-write, so that concurrent writers of the same series do
+      * not overwrite each other. The merged aggregates are copied to the
+      * metadata of this series. The write-ahead log segments of the slots
+      * are deleted after the aggregates are recorded.
+      */
+     void updateMetadata() {
+         synchronized (_metadata) {
+             _lastMetadataUpdate = System.currentTimeMillis();
+             if (_metadataDelta.isEmpty()) {
+                 if (_wal != null) _wal.truncate();
+                 return;
+             }
+             Row latest = _store.getTableAPI().get(_metadata.createPrimaryKey(), 
+                     RMWLock.READ_OPTION);
+             Assert.assertNotNull(latest, new IllegalStateException(
+                     "metadata of " + this + " is not found"));
+             Row merged = _metadataLock.update(_store, latest, _metadataDelta);
+             SLOT_COUNT.set(_metadata, SLOT_COUNT.getInt(merged));
+             EVENT_COUNT.set(_metadata, EVENT_COUNT.getLong(merged));
+             TIMESTAMP_FIRST.set(_metadata, TIMESTAMP_FIRST.getLong(merged));
+             TIMESTAMP_LAST.set(_metadata, TIMESTAMP_LAST.getLong(merged));
+             _metadataDelta.clear();
+             if (_wal != null) _wal.truncate();
          }
-         _store.getTableAPI().put(_metadata, null, null);
      }
 
      public void close() {
-         flush(true);
-        super.close();
-         
+         try {
+             drainReorderBuffer();
+             if (_flusher != null) {
+                 _flusher.close();
+             }
+             flush(true);
+             updateMetadata();
+         } finally {
+             try {
+                 if (_wal != null) {
+                     _wal.close();
+                 }
+             } finally {
+                 super.close();
+             }
+         }
      }
      
      void changeTimerange(TimeRange range) {
-         System.err.println("series timerange: " + getTimeRange());
-         System.err.println("slot timerange  : " + range);
          TimeRange newRange = getTimeRange().add(range);
          TIMESTAMP_FIRST.set(_metadata, newRange.getStartTime());
          TIMESTAMP_LAST.set(_metadata, newRange.getEndTime());
-         System.err.println("series timerange: " + getTimeRange() + " (After)");
+         if (_logger.isLoggable(Level.FINE)) {
+             _logger.fine("time range of " + this + " is " + newRange 
+                     + " after slot time range " + range);
+         }
      }
 
 }
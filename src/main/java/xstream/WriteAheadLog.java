@@ -0,0 +1,457 @@
+package xstream;
+
+import static xstream.TimeSeriesSchema.TIMESTAMP;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import oracle.kv.table.FieldDef.Type;
+import oracle.kv.table.FieldValue;
+import oracle.kv.table.RecordDef;
+import oracle.kv.table.RecordValue;
+
+/**
+ * An append-only local log of events written to the slots of a
+ * {@link WritableTimeSeries} that have not yet been flushed to the store.
+ * <br>
+ * Events of each slot are appended to a segment file of their own. A
+ * segment is a memory-mapped file, so an appended event survives a crash
+ * of the process as soon as it is appended. The segment is forced to disk
+ * in batches, after a number of events or an interval of time, to survive
+ * a crash of the machine. When its slot has been flushed to the store, a
+ * segment is closed and kept as flushed until the aggregates of the slot
+ * have been recorded in the series metadata, and is then deleted. A
+ * flushed segment on replay shows a slot that is in the store but may be
+ * missing from the aggregates of the series. A crash after the aggregates
+ * are recorded but before the flushed segments are deleted counts those
+ * slots again.
+ * <br>
+ * A segment begins with a header that records the index of the slot and
+ * the number of events the slot had in the store before the first logged
+ * event. Each event is a record of its length, a checksum and the values.
+ * A torn record at the end of a segment is ignored on replay.
+ *
+ * @author pinaki poddar
+ *
+ */
+class WriteAheadLog {
+    private final File _dir;
+    private final RecordDef _def;
+    private final Type[] _types;
+    private final Map<Integer, Segment> _segments = new HashMap<Integer, Segment>();
+    private final List<File> _flushed = new ArrayList<File>();
+    private final CRC32 _crc = new CRC32();
+    private ByteBuffer _record = ByteBuffer.allocate(256);
+    private int _unsynced;
+    private long _lastSync = System.currentTimeMillis();
+
+    public static int  SYNC_BATCH_SIZE = 1000;
+    public static long SYNC_INTERVAL_MS = 100;
+    static final int SEGMENT_SIZE = 1024*1024;
+    static final int MAGIC = 0x5853574C; // XSWL
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final String SUFFIX = ".wal";
+    static final String FLUSHED_SUFFIX = ".flushed";
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Creates a log in given directory.
+     *
+     * @param dir directory of the segments. Created if it does not exist.
+     * @param meta definition of events
+     */
+    WriteAheadLog(File dir, EventMetadata meta) {
+        SlotCodec.assertSupported(meta.asRecordDef());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new RuntimeException("can not create write-ahead log directory " + dir);
+        }
+        _dir = dir;
+        _def = meta.asRecordDef();
+        _types = new Type[_def.getNumFields()];
+        for (int i = 0; i < _types.length; i++) {
+            _types[i] = _def.getFieldDef(i).getType();
+        }
+    }
+
+    File getDirectory() {
+        return _dir;
+    }
+
+    /**
+     * Appends an event of a slot.
+     *
+     * @param slot index of the slot
+     * @param baseCount number of events in the slot before the event
+     * @param record the event
+     */
+    synchronized void append(int slot, long baseCount, RecordValue record) {
+        _record.clear();
+        for (int p = 0; p < _types.length; p++) {
+            if (TIMESTAMP.getName().equals(_def.getFieldName(p))) {
+                ensureRecordCapacity(8);
+                _record.putLong(TIMESTAMP.getLong(record));
+                continue;
+            }
+            FieldValue v = record.get(p);
+            if (v == null || v.isNull()) {
+                putNull();
+                continue;
+            }
+            switch (_types[p]) {
+            case DOUBLE:  putDouble(v.asDouble().get()); break;
+            case INTEGER: putInt(v.asInteger().get()); break;
+            case LONG:    putLong(v.asLong().get()); break;
+            default:      putString(v.asString().get());
+            }
+        }
+        segment(slot, baseCount).append(_record, _crc);
+        synced(1);
+    }
+
+    /**
+     * Appends events of a batch to a slot.
+     *
+     * @param slot index of the slot
+     * @param baseCount number of events in the slot before the events
+     * @param batch a batch of events
+     * @param from index of the first event in the batch
+     * @param n number of events
+     */
+    synchronized void append(int slot, long baseCount, EventBatch batch, int from, int n) {
+        Segment segment = segment(slot, baseCount);
+        long[] time = batch.getTimestamps();
+        for (int row = from; row < from + n; row++) {
+            _record.clear();
+            for (int p = 0; p < _types.length; p++) {
+                Object column = batch.getColumn(p);
+                if (column == null) {
+                    ensureRecordCapacity(8);
+                    _record.putLong(time[row]);
+                } else if (column instanceof double[]) {
+                    putDouble(((double[])column)[row]);
+                } else if (column instanceof int[]) {
+                    putInt(((int[])column)[row]);
+                } else if (column instanceof long[]) {
+                    putLong(((long[])column)[row]);
+                } else {
+                    String s = ((String[])column)[row];
+                    if (s == null) putNull(); else putString(s);
+                }
+            }
+            segment.append(_record, _crc);
+        }
+        synced(n);
+    }
+
+    /**
+     * Closes the segment of given slot after the slot has been flushed. The
+     * segment is kept until {@link #truncate() truncated}. Events logged
+     * for the slot after this call go to a new segment.
+     *
+     * @param slot index of the slot
+     * @param count number of events of the slot as flushed
+     */
+    synchronized void flushed(int slot, long count) {
+        Segment segment = _segments.remove(slot);
+        if (segment == null) return;
+        segment.force();
+        segment.close();
+        File f = new File(_dir, "slot-" + slot + "-" + count + FLUSHED_SUFFIX);
+        if (segment._file.renameTo(f)) {
+            _flushed.add(f);
+        } else {
+            TimeSeries._logger.log(Level.WARNING, "can not rename " + segment._file
+                    + " to " + f);
+            _flushed.add(segment._file);
+        }
+    }
+
+    /**
+     * Deletes the segments of flushed slots after the aggregates of the
+     * slots have been recorded in the series metadata.
+     */
+    synchronized void truncate() {
+        for (File f : _flushed) {
+            if (!f.delete()) {
+                TimeSeries._logger.log(Level.WARNING, "can not delete " + f);
+            }
+        }
+        _flushed.clear();
+    }
+
+    /**
+     * Forces all segments to disk.
+     */
+    synchronized void sync() {
+        for (Segment segment : _segments.values()) {
+            segment.force();
+        }
+        _unsynced = 0;
+        _lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Forces and closes all segments. Segments of slots that have not been
+     * flushed, or whose aggregates have not been recorded, remain for
+     * replay.
+     */
+    synchronized void close() {
+        sync();
+        for (Segment segment : _segments.values()) {
+            segment.close();
+        }
+        _segments.clear();
+    }
+
+    /**
+     * Reads the events of all segments in the directory.
+     *
+     * @return events of each segment, with the number of events the slot
+     * had before the first logged event. Segments are ordered by slot
+     * index, and flushed segments of a slot are before its open segment
+     * in the order they were flushed.
+     */
+    List<Replay> replay() {
+        List<Replay> result = new ArrayList<Replay>();
+        File[] files = _dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("slot-") 
+                    && (name.endsWith(SUFFIX) || name.endsWith(FLUSHED_SUFFIX));
+            }
+        });
+        if (files == null) return result;
+        for (File f : files) {
+            try {
+                Replay replay = read(f);
+                if (replay != null) result.add(replay);
+            } catch (IOException ex) {
+                throw new RuntimeException("can not replay write-ahead log " + f, ex);
+            }
+        }
+        Collections.sort(result, new Comparator<Replay>() {
+            @Override
+            public int compare(Replay a, Replay b) {
+                if (a._slot != b._slot) return a._slot < b._slot ? -1 : 1;
+                if (a.isFlushed() != b.isFlushed()) return a.isFlushed() ? -1 : 1;
+                return a._baseCount < b._baseCount ? -1 : (a._baseCount == b._baseCount ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Deletes the segment file of a replayed slot.
+     */
+    void discard(Replay replay) {
+        if (replay._file.exists() && !replay._file.delete()) {
+            TimeSeries._logger.log(Level.WARNING, "can not delete " + replay._file);
+        }
+    }
+
+    private Replay read(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            long length = raf.length();
+            if (length < HEADER_SIZE) return null;
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                TimeSeries._logger.log(Level.WARNING, f + " is not a write-ahead log segment");
+                return null;
+            }
+            Replay replay = new Replay(f, buf.getInt(), buf.getInt());
+            byte[] payload = new byte[256];
+            while (buf.remaining() >= 8) {
+                int size = buf.getInt();
+                int crc = buf.getInt();
+                if (size <= 0 || size > buf.remaining()) break;
+                if (payload.length < size) payload = new byte[Math.max(size, 2*payload.length)];
+                buf.get(payload, 0, size);
+                CRC32 check = new CRC32();
+                check.update(payload, 0, size);
+                if ((int)check.getValue() != crc) break;
+                replay._events.add(decode(ByteBuffer.wrap(payload, 0, size)));
+            }
+            return replay;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private RecordValue decode(ByteBuffer in) {
+        RecordValue record = _def.createRecord();
+        for (int p = 0; p < _types.length; p++) {
+            String name = _def.getFieldName(p);
+            if (TIMESTAMP.getName().equals(name)) {
+                record.put(name, in.getLong());
+                continue;
+            }
+            if (in.get() == 0) {
+                record.putNull(name);
+                continue;
+            }
+            switch (_types[p]) {
+            case DOUBLE:  record.put(name, in.getDouble()); break;
+            case INTEGER: record.put(name, in.getInt()); break;
+            case LONG:    record.put(name, in.getLong()); break;
+            default:
+                byte[] b = new byte[in.getInt()];
+                in.get(b);
+                record.put(name, new String(b, UTF8));
+            }
+        }
+        return record;
+    }
+
+    private Segment segment(int slot, long baseCount) {
+        Segment segment = _segments.get(slot);
+        if (segment == null) {
+            try {
+                segment = new Segment(segmentFile(slot), slot, baseCount);
+            } catch (IOException ex) {
+                throw new RuntimeException("can not create write-ahead log segment for slot "
+                        + slot + " in " + _dir, ex);
+            }
+            _segments.put(slot, segment);
+        }
+        return segment;
+    }
+
+    File segmentFile(int slot) {
+        return new File(_dir, "slot-" + slot + SUFFIX);
+    }
+
+    private void synced(int n) {
+        _unsynced += n;
+        if (_unsynced >= SYNC_BATCH_SIZE
+         || System.currentTimeMillis() - _lastSync >= SYNC_INTERVAL_MS) {
+            sync();
+        }
+    }
+
+    private void putNull() {
+        ensureRecordCapacity(1);
+        _record.put((byte)0);
+    }
+
+    private void putDouble(double v) {
+        ensureRecordCapacity(9);
+        _record.put((byte)1).putDouble(v);
+    }
+
+    private void putInt(int v) {
+        ensureRecordCapacity(5);
+        _record.put((byte)1).putInt(v);
+    }
+
+    private void putLong(long v) {
+        ensureRecordCapacity(9);
+        _record.put((byte)1).putLong(v);
+    }
+
+    private void putString(String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        ensureRecordCapacity(5 + bytes.length);
+        _record.put((byte)1).putInt(bytes.length).put(bytes);
+    }
+
+    private void ensureRecordCapacity(int n) {
+        if (_record.remaining() >= n) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(_record.capacity()*2,
+                _record.position() + n));
+        _record.flip();
+        bigger.put(_record);
+        _record = bigger;
+    }
+
+    /**
+     * Events of a slot read from a segment.
+     */
+    static class Replay {
+        final File _file;
+        final int _slot;
+        final long _baseCount;
+        final List<RecordValue> _events = new ArrayList<RecordValue>();
+
+        Replay(File file, int slot, long baseCount) {
+            _file = file;
+            _slot = slot;
+            _baseCount = baseCount;
+        }
+
+        /**
+         * Affirms if the slot had been flushed with these events.
+         */
+        boolean isFlushed() {
+            return _file.getName().endsWith(FLUSHED_SUFFIX);
+        }
+    }
+
+    /**
+     * A memory-mapped segment file of a slot. Grows by mapping a larger
+     * region when full.
+     */
+    private static class Segment {
+        final File _file;
+        final RandomAccessFile _raf;
+        MappedByteBuffer _buf;
+
+        Segment(File file, int slot, long baseCount) throws IOException {
+            _file = file;
+            _raf = new RandomAccessFile(file, "rw");
+            _raf.setLength(0);
+            _buf = _raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            _buf.putInt(MAGIC).putInt(VERSION).putInt(slot).putInt((int)baseCount);
+        }
+
+        void append(ByteBuffer record, CRC32 crc) {
+            int size = record.position();
+            if (_buf.remaining() < size + 8) {
+                grow(size + 8);
+            }
+            crc.reset();
+            crc.update(record.array(), 0, size);
+            _buf.putInt(size).putInt((int)crc.getValue());
+            _buf.put(record.array(), 0, size);
+        }
+
+        private void grow(int n) {
+            int position = _buf.position();
+            long size = Math.max(2L*_buf.capacity(), position + n);
+            try {
+                _buf.force();
+                _buf = _raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                _buf.position(position);
+            } catch (IOException ex) {
+                throw new RuntimeException("can not grow write-ahead log " + _file, ex);
+            }
+        }
+
+        void force() {
+            _buf.force();
+        }
+
+        void close() {
+            try {
+                _raf.close();
+            } catch (IOException ex) {
+                TimeSeries._logger.log(Level.WARNING, "can not close " + _file, ex);
+            }
+        }
+    }
+}
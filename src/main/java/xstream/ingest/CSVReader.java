@@ -6,12 +6,10 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Observable;
 
+import xstream.SharedTimeSeriesWriter;
 import xstream.WritableTimeSeries;
 import xstream.util.StopWatch;
 
@@ -24,8 +22,10 @@ import xstream.util.StopWatch;
 public class CSVReader extends Observable implements Runnable {
     private final File _file;
     private final WritableTimeSeries _series;
+    // writer shared with other readers. null if the series is owned
+    private final SharedTimeSeriesWriter _writer;
     
-    private DateFormat _dateFormat;
+    private TimestampParser _dateFormat;
     private int _headerLines;
     private int _timstampFieldIndex;
     
@@ -37,16 +37,35 @@ public class CSVReader extends Observable implements Runnable {
     public CSVReader(File file, WritableTimeSeries series) {
         _file = file;
         _series= series;
+        _writer = null;
         _series.setTimeOrderStrict(false);
         _series.setAutoSortEvent(true);
     }
     
+    /**
+     * Creates a reader that writes to a series shared with other readers.
+     * The reader writes through its own {@link SharedTimeSeriesWriter#newProducer()
+     * producer}, created when the reader starts to run, so that a reader
+     * waiting to run does not hold the events of the others. The shared
+     * writer is not closed by this reader.
+     * 
+     * @param file the input file
+     * @param writer a writer shared by readers running concurrently
+     */
+    public CSVReader(File file, SharedTimeSeriesWriter writer) {
+        _file = file;
+        _series = null;
+        _writer = writer;
+    }
+    
     public void run()  {
         ensureSingleThreaded();
         int eventLoaded = 0;
         int i = 0;
         StopWatch watch = new StopWatch();
         System.err.println("Loading " + _file + " ...");
+        SharedTimeSeriesWriter.Producer producer = _writer == null 
+                ? null : _writer.newProducer();
         try {
             BufferedReader reader = new BufferedReader(new FileReader(_file));
             String line = null;
@@ -55,18 +74,21 @@ public class CSVReader extends Observable implements Runnable {
                 if (i <= _headerLines) continue;
                 if (line.startsWith("#")) continue;
                 String[] values = line.split(",");
-                Date date = new Date();
                 String timeString = values[_timstampFieldIndex].trim();
+                long ts;
                 try {
-                    date = _dateFormat.parse(timeString);
+                    ts = _dateFormat.parse(timeString);
                 } catch (NumberFormatException ex) {
                     setChanged();
                     notifyObservers(new LoadError("Line " + i + " time string [" 
                          + timeString + "]" + " format " + _dateFormat, ex));
                     continue;
                 }
-                long ts = date.getTime();
-                _series.write(ts, (Object[])values);
+                if (producer != null) {
+                    producer.write(ts, (Object[])values);
+                } else {
+                    _series.write(ts, (Object[])values);
+                }
                 eventLoaded++;
            }
             reader.close();
@@ -77,7 +99,11 @@ public class CSVReader extends Observable implements Runnable {
             setChanged();
             notifyObservers(new LoadError("error at Line " + i + "of " + _file, ex));
         } finally {
-            _series.close();
+            if (producer != null) {
+                producer.close();
+            } else {
+                _series.close();
+            }
         }
         setChanged();
         long timeTaken = watch.stop();
@@ -88,7 +114,7 @@ public class CSVReader extends Observable implements Runnable {
 
     
     public CSVReader withDateFormat(String dateFormat) {
-        _dateFormat = new SimpleDateFormat(dateFormat);
+        _dateFormat = new TimestampParser(dateFormat);
         return this;
     }
     
@@ -2,12 +2,15 @@ package xstream.ingest;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import xstream.SharedTimeSeriesWriter;
 import xstream.TimeSeries;
 import xstream.TimeSeriesBuilder;
 import xstream.WritableTimeSeries;
@@ -26,6 +29,8 @@ public class Ingester implements Observer {
     private int _loadedFileCount;
     private long _loadedEventCount;
     private long _elapsedTime;
+    
+    public static long REORDER_WINDOW_MS = 60*60*1000;
 
     public static void main(String[] args) throws Exception {
         if (args.length < 2) {
@@ -71,31 +76,50 @@ public class Ingester implements Observer {
 
     /**
      * Runs multiple readers on separate threads and collects performance
-     * statistics.
+     * statistics. The readers share a single writer of the series.
      */
     public void run() {
         long startTime = System.currentTimeMillis();
-        ExecutorService threadPool = Executors.newCachedThreadPool();
+        WritableTimeSeries ws = (WritableTimeSeries)_series;
+        ws.setTimeOrderStrict(false);
+        ws.setAutoSortEvent(true);
+        // rows of a file that are out of order, and rows of a reader that
+        // starts after rows of others have been written
+        ws.setReorderWindow(REORDER_WINDOW_MS);
+        SharedTimeSeriesWriter writer = new SharedTimeSeriesWriter(ws);
+        ExecutorService threadPool = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        // the files overlap in time. Each reader is a producer of the
+        // writer from when it starts to run
+        List<CSVReader> loaders = new ArrayList<CSVReader>();
         for (File f : _files) {
-            WritableTimeSeries ws = (WritableTimeSeries)new TimeSeriesBuilder()
-                    .withSeriesURL(_series.getURL().toString())
-                    .getOrCreate(false);
-            CSVReader loader = new CSVReader(f, ws);
+            CSVReader loader = new CSVReader(f, writer);
             loader.withDateFormat("yyyy-MM-dd'T'HH:mm:ss")
             .withHeaderLines(1)
             .withTimestampFieldIndex(5);
 
             loader.addObserver(this);
-
+            loaders.add(loader);
+        }
+        for (CSVReader loader : loaders) {
             threadPool.submit(loader);
         }
         threadPool.shutdown();
         try {
-            threadPool.awaitTermination(2, TimeUnit.MINUTES);
+            if (!threadPool.awaitTermination(2, TimeUnit.MINUTES)) {
+                System.err.println("*** ERROR: readers did not finish. Stopping the readers");
+                // a stopped reader closes its producer
+                threadPool.shutdownNow();
+                threadPool.awaitTermination(10, TimeUnit.SECONDS);
+            }
         } catch (InterruptedException ex) {
+            threadPool.shutdownNow();
+            Thread.currentThread().interrupt();
         } finally {
-            _elapsedTime = System.currentTimeMillis() - startTime;
+            // events read before the readers stopped are written
+            writer.close();
         }
+        _elapsedTime = System.currentTimeMillis() - startTime;
     }
 
     @Override
@@ -0,0 +1,484 @@
+package xstream.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Observable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import oracle.kv.table.FieldDef.Type;
+import oracle.kv.table.RecordDef;
+import xstream.EventBatch;
+import xstream.WritableTimeSeries;
+import xstream.util.StopWatch;
+
+/**
+ * Reads a CSV file by mapping it to memory and stores the data to a
+ * timeseries.
+ * <br>
+ * The file is split into chunks that end at a line boundary. The chunks
+ * are parsed in parallel, straight from the mapped bytes into an
+ * {@link EventBatch}, and each batch is sorted by timestamp. The sorted
+ * batches are merged in temporal order as they are parsed: an event is
+ * written once it is earlier than the first event of the next chunk in
+ * the file, so that events of adjacent chunks that overlap in time reach
+ * the series in order. An event of a chunk that is earlier than an event
+ * of a chunk before the next one is written as the series sorts a late
+ * event, and is reported if the series rejects it.
+ * <br>
+ * A value of CSV column <code>i</code> is the value of the event property
+ * at position <code>i+1</code>, as with {@link CSVReader}. The file is
+ * expected to be encoded in UTF-8 or a subset.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class MappedCSVReader extends Observable implements Runnable {
+    private final File _file;
+    private final WritableTimeSeries _series;
+
+    private TimestampParser _dateFormat;
+    private int _headerLines;
+    private int _timestampFieldIndex;
+    private int _parallelism = Runtime.getRuntime().availableProcessors();
+    private int _chunkSize = DEFAULT_CHUNK_SIZE;
+
+    public static final int DEFAULT_CHUNK_SIZE = 16*1024*1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final double[] POWERS_OF_TEN = {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     *
+     * @param file the input file
+     * @param series a writable timeseries
+     */
+    public MappedCSVReader(File file, WritableTimeSeries series) {
+        _file = file;
+        _series = series;
+        _series.setTimeOrderStrict(false);
+        _series.setAutoSortEvent(true);
+    }
+
+    public MappedCSVReader withDateFormat(String dateFormat) {
+        _dateFormat = new TimestampParser(dateFormat);
+        return this;
+    }
+
+    public MappedCSVReader withHeaderLines(int n) {
+        _headerLines = n;
+        return this;
+    }
+
+    public MappedCSVReader withTimestampFieldIndex(int n) {
+        _timestampFieldIndex = n;
+        return this;
+    }
+
+    /**
+     * Sets number of threads that parse chunks.
+     */
+    public MappedCSVReader withParallelism(int n) {
+        _parallelism = Math.max(1, n);
+        return this;
+    }
+
+    /**
+     * Sets approximate number of bytes in a chunk.
+     */
+    public MappedCSVReader withChunkSize(int bytes) {
+        _chunkSize = Math.max(1024, bytes);
+        return this;
+    }
+
+    public void run() {
+        int eventLoaded = 0;
+        StopWatch watch = new StopWatch();
+        watch.start();
+        System.err.println("Loading " + _file + " ...");
+        ExecutorService parsers = Executors.newFixedThreadPool(_parallelism);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(_file, "r");
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            // at most two chunks per parser are held in memory
+            Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+            // sorted events of parsed chunks that are yet to be written
+            List<Run> runs = new ArrayList<Run>();
+            long start = 0;
+            int chunkIndex = 0;
+            while (start < size || !pending.isEmpty()) {
+                while (start < size && pending.size() < 2*_parallelism) {
+                    long end = lineBoundary(channel, Math.min(size, start + _chunkSize));
+                    MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+                            start, end - start);
+                    pending.add(parsers.submit(new ChunkParser(buf, chunkIndex++, start == 0)));
+                    start = end;
+                }
+                Chunk chunk = pending.poll().get();
+                for (String error : chunk._errors) {
+                    setChanged();
+                    notifyObservers(new CSVReader.LoadError(error,
+                            new ParseException(error, 0)));
+                }
+                if (chunk._batch.size() > 0) {
+                    runs.add(new Run(chunk));
+                }
+                eventLoaded += merge(runs, watermark(pending, start < size));
+            }
+        } catch (IOException ex) {
+            setChanged();
+            notifyObservers(new CSVReader.LoadError("error reading " + _file, ex));
+        } catch (ExecutionException ex) {
+            setChanged();
+            notifyObservers(new CSVReader.LoadError("error parsing " + _file,
+                    ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            setChanged();
+            notifyObservers(new CSVReader.LoadError("interrupted loading " + _file, ex));
+        } finally {
+            parsers.shutdownNow();
+            try {
+                if (raf != null) raf.close();
+            } catch (IOException ex) {
+            }
+            _series.close();
+        }
+        setChanged();
+        long timeTaken = watch.stop();
+        notifyObservers(new CSVReader.LoadFinshed(_file, eventLoaded, timeTaken));
+    }
+
+    /**
+     * Gets the time before which events of parsed chunks can be written.
+     * The first event of the next chunk in the file is the watermark. The
+     * next chunk, if submitted, is waited for.
+     *
+     * @param pending chunks in the order of the file
+     * @param more if chunks remain to be submitted
+     * @return Long.MAX_VALUE after the last chunk
+     */
+    private long watermark(Deque<Future<Chunk>> pending, boolean more)
+            throws ExecutionException, InterruptedException {
+        if (pending.isEmpty()) {
+            return more ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        EventBatch next = pending.peek().get()._batch;
+        return next.size() > 0 ? next.getTimestamps()[0] : Long.MIN_VALUE;
+    }
+
+    /**
+     * Writes events of the sorted runs that are earlier than the watermark
+     * in temporal order. The run with the earliest event is written in a
+     * range up to the earliest event of the other runs. An error of the
+     * series is reported, and the events of the range are skipped.
+     *
+     * @return number of events written
+     */
+    private int merge(List<Run> runs, long watermark) {
+        int written = 0;
+        while (true) {
+            Run first = null;
+            long second = Long.MAX_VALUE;
+            for (Run run : runs) {
+                if (first == null || run.head() < first.head()) {
+                    if (first != null) second = Math.min(second, first.head());
+                    first = run;
+                } else {
+                    second = Math.min(second, run.head());
+                }
+            }
+            if (first == null || first.head() >= watermark) break;
+            long[] time = first._chunk._batch.getTimestamps();
+            int size = first._chunk._batch.size();
+            int end = first._next;
+            while (end < size && time[end] < watermark && time[end] <= second) end++;
+            try {
+                _series.write(first._chunk._batch, first._next, end - first._next);
+                written += end - first._next;
+            } catch (RuntimeException ex) {
+                setChanged();
+                notifyObservers(new CSVReader.LoadError("error writing events of chunk "
+                        + first._chunk._index + " of " + _file + ": " + ex.getMessage(), ex));
+            }
+            first._next = end;
+            if (end == size) runs.remove(first);
+        }
+        return written;
+    }
+
+    /**
+     * Finds the position after the first newline at or after given position.
+     *
+     * @return size of the file if there is no newline
+     */
+    static long lineBoundary(FileChannel channel, long position) throws IOException {
+        long size = channel.size();
+        if (position >= size) return size;
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long pos = position;
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /**
+     * The events of a chunk of the file.
+     */
+    static class Chunk {
+        final int _index;
+        final EventBatch _batch;
+        final List<String> _errors = new ArrayList<String>();
+
+        Chunk(int index, EventBatch batch) {
+            _index = index;
+            _batch = batch;
+        }
+    }
+
+    /**
+     * Sorted events of a chunk, of which those before the next index have
+     * been written.
+     */
+    static class Run {
+        final Chunk _chunk;
+        int _next;
+
+        Run(Chunk chunk) {
+            _chunk = chunk;
+        }
+
+        long head() {
+            return _chunk._batch.getTimestamps()[_next];
+        }
+    }
+
+    /**
+     * Parses lines of a chunk into a batch of events.
+     * A parser is confined to a single thread.
+     */
+    class ChunkParser implements Callable<Chunk> {
+        private final ByteBuffer _buf;
+        private final int _index;
+        private final boolean _first;
+        private final Type[] _types;
+        private byte[] _scratch = new byte[64];
+
+        ChunkParser(ByteBuffer buf, int index, boolean first) {
+            _buf = buf;
+            _index = index;
+            _first = first;
+            RecordDef def = _series.getEventDefinition().asRecordDef();
+            _types = new Type[def.getNumFields()];
+            for (int i = 0; i < _types.length; i++) {
+                _types[i] = def.getFieldDef(i).getType();
+            }
+        }
+
+        @Override
+        public Chunk call() {
+            int limit = _buf.limit();
+            int lines = 1;
+            for (int i = 0; i < limit; i++) {
+                if (_buf.get(i) == '\n') lines++;
+            }
+            Chunk chunk = new Chunk(_index, _series.newEventBatch(lines));
+            int line = 0;
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && _buf.get(end) != '\n') end++;
+                line++;
+                int next = end + 1;
+                if (end > start && _buf.get(end-1) == '\r') end--;
+                if (!(_first && line <= _headerLines)
+                  && end > start && _buf.get(start) != '#') {
+                    try {
+                        parseLine(chunk._batch, start, end);
+                    } catch (RuntimeException ex) {
+                        chunk._errors.add("Line " + line + " of chunk " + _index
+                                + " of " + _file + ": " + ex.getMessage());
+                    }
+                }
+                start = next;
+            }
+            chunk._batch.sort();
+            return chunk;
+        }
+
+        /**
+         * Parses a line into the next row of the batch. The row is added
+         * only if the entire line is parsed.
+         */
+        void parseLine(EventBatch batch, int start, int end) {
+            int row = batch.size();
+            long ts = -1;
+            int column = 0;
+            int pos = start;
+            while (pos <= end) {
+                int sep = pos;
+                while (sep < end && _buf.get(sep) != ',') sep++;
+                int from = pos;
+                int to = sep;
+                while (from < to && _buf.get(from) == ' ') from++;
+                while (to > from && _buf.get(to-1) == ' ') to--;
+                if (column == _timestampFieldIndex) {
+                    ts = parseTimestamp(from, to);
+                }
+                int position = column + 1;
+                if (position < _types.length) {
+                    switch (_types[position]) {
+                    case DOUBLE:
+                        batch.setDouble(row, position, parseDouble(_buf, from, to));
+                        break;
+                    case INTEGER:
+                        batch.setInt(row, position, parseInt(_buf, from, to));
+                        break;
+                    case LONG:
+                        batch.setLong(row, position, parseLong(_buf, from, to));
+                        break;
+                    default:
+                        batch.setString(row, position, decode(from, to));
+                    }
+                }
+                column++;
+                pos = sep + 1;
+            }
+            if (ts < 0) {
+                throw new IllegalArgumentException("missing timestamp at column "
+                        + _timestampFieldIndex);
+            }
+            batch.add(ts);
+        }
+
+        long parseTimestamp(int from, int to) {
+            try {
+                return _dateFormat.parse(_buf, from, to);
+            } catch (ParseException ex) {
+                throw new IllegalArgumentException(ex.getMessage());
+            }
+        }
+
+        String decode(int from, int to) {
+            int n = to - from;
+            if (_scratch.length < n) _scratch = new byte[Math.max(n, 2*_scratch.length)];
+            for (int i = 0; i < n; i++) _scratch[i] = _buf.get(from + i);
+            return new String(_scratch, 0, n, UTF8);
+        }
+    }
+
+    /**
+     * Parses a decimal integer from given range of bytes.
+     */
+    static long parseLong(ByteBuffer buf, int from, int to) {
+        if (from >= to) throw new NumberFormatException("empty number");
+        boolean negative = false;
+        int i = from;
+        byte b = buf.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+            if (i == to) throw new NumberFormatException("no digit after sign");
+        }
+        long v = 0;
+        for (; i < to; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9 || v < -(Long.MAX_VALUE/10)
+             || (v == -(Long.MAX_VALUE/10) && d > 8)) {
+                return Long.parseLong(ascii(buf, from, to));
+            }
+            v = v*10 - d; // accumulate negatively to cover Long.MIN_VALUE
+        }
+        if (!negative && v == Long.MIN_VALUE) {
+            throw new NumberFormatException("out of range " + ascii(buf, from, to));
+        }
+        return negative ? v : -v;
+    }
+
+    static int parseInt(ByteBuffer buf, int from, int to) {
+        long v = parseLong(buf, from, to);
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            throw new NumberFormatException("out of range " + ascii(buf, from, to));
+        }
+        return (int)v;
+    }
+
+    /**
+     * Parses a decimal number from given range of bytes.
+     * A plain decimal of at most 15 significant digits is computed exactly
+     * from its digits. Other forms are parsed by {@link Double#parseDouble(String)}.
+     */
+    static double parseDouble(ByteBuffer buf, int from, int to) {
+        if (from >= to) throw new NumberFormatException("empty number");
+        int i = from;
+        boolean negative = false;
+        byte b = buf.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                if (mantissa == 0 && b == '0') {
+                    if (point) scale++;
+                    continue;
+                }
+                mantissa = mantissa*10 + (b - '0');
+                digits++;
+                if (point) scale++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i < to || digits > 15 || scale >= POWERS_OF_TEN.length
+         || (digits == 0 && !hasDigit(buf, from, to))) {
+            return Double.parseDouble(ascii(buf, from, to));
+        }
+        double v = (double)mantissa / POWERS_OF_TEN[scale];
+        return negative ? -v : v;
+    }
+
+    private static boolean hasDigit(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') return true;
+        }
+        return false;
+    }
+
+    private static String ascii(ByteBuffer buf, int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; i++) chars[i] = (char)buf.get(from + i);
+        return new String(chars);
+    }
+}
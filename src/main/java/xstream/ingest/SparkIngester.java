@@ -2,9 +2,6 @@ package xstream.ingest;
 
 import java.io.File;
 import java.io.Serializable;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
 import org.apache.spark.SparkConf;
 import org.apache.spark.rdd.RDD;
@@ -50,7 +47,7 @@ public class SparkIngester implements Serializable {
         
         final int headerLines = 1;
         final int timestampFieldIndex = 5;
-        final DateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        final TimestampParser timestampFormat = new TimestampParser("yyyy-MM-dd'T'HH:mm:ss");
         if (!rootDir.exists()) {
             //error(1, "input file " + args[0] + " not found");
         }
@@ -74,8 +71,7 @@ public class SparkIngester implements Serializable {
                    for (int i = headerLines; i < lines.length; i++) {
                        String[] values = lines[i].split(",");
                        try {
-                           Date date = timestampFormat.parse(values[timestampFieldIndex]);
-                           long ts = date.getTime();
+                           long ts = timestampFormat.parse(values[timestampFieldIndex]);
                            timeseries.write(ts, (Object[])values);
                        } catch (Exception ex) {
                            ex.printStackTrace();
@@ -0,0 +1,269 @@
+package xstream.ingest;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Parses timestamp strings of a fixed pattern into milliseconds since epoch.
+ * <br>
+ * A pattern made of numeric fields <code>yyyy MM dd HH mm ss SSS</code>
+ * and literals, such as <code>yyyy-MM-dd'T'HH:mm:ss</code>, is compiled
+ * into a parser that reads digits directly from a character or byte range
+ * without allocating. The start of the day is computed once and reused
+ * for consecutive timestamps of the same day, which is the common case
+ * for time-ordered data.
+ * <br>
+ * Input that does not match the pattern exactly, and patterns with other
+ * fields, are parsed by {@link SimpleDateFormat}.
+ * <br>
+ * A parser is thread-safe and can be shared or serialized.
+ *
+ * @author pinaki poddar
+ *
+ */
+@SuppressWarnings("serial")
+public class TimestampParser implements Serializable {
+    private final String _pattern;
+    private final TimeZone _timeZone;
+    // field letter at each position of input or 0 for a literal
+    private final char[] _fields;
+    private final char[] _literals;
+    private final boolean _compiled;
+    private final boolean _hasDate;
+
+    private transient volatile Day _day;
+    private transient ThreadLocal<SimpleDateFormat> _formats;
+    private transient ThreadLocal<Calendar> _calendars;
+
+    private static final String FIELDS = "yMdHmsS";
+    private static final long MILLIS_PER_DAY = 24*60*60*1000L;
+
+    /**
+     * Creates a parser for given pattern in default time zone.
+     *
+     * @param pattern a pattern as defined by {@link SimpleDateFormat}
+     */
+    public TimestampParser(String pattern) {
+        this(pattern, TimeZone.getDefault());
+    }
+
+    public TimestampParser(String pattern, TimeZone timeZone) {
+        new SimpleDateFormat(pattern); // validates pattern
+        _pattern = pattern;
+        _timeZone = timeZone;
+        StringBuilder fields = new StringBuilder();
+        StringBuilder literals = new StringBuilder();
+        boolean compiled = compile(pattern, fields, literals);
+        _fields = fields.toString().toCharArray();
+        _literals = literals.toString().toCharArray();
+        String f = fields.toString();
+        boolean hasDate = f.indexOf('y') >= 0 && f.indexOf('M') >= 0 && f.indexOf('d') >= 0;
+        // a partial date is left to the general parser
+        _compiled = compiled && (hasDate
+                || (f.indexOf('y') < 0 && f.indexOf('M') < 0 && f.indexOf('d') < 0));
+        _hasDate = hasDate;
+        _formats = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                SimpleDateFormat format = new SimpleDateFormat(_pattern);
+                format.setTimeZone(_timeZone);
+                return format;
+            }
+        };
+        _calendars = new ThreadLocal<Calendar>() {
+            @Override
+            protected Calendar initialValue() {
+                return Calendar.getInstance(_timeZone);
+            }
+        };
+    }
+
+    /**
+     * Compiles the pattern into one field letter or literal per input
+     * character.
+     *
+     * @return false if the pattern has a field that is not supported
+     */
+    static boolean compile(String pattern, StringBuilder fields, StringBuilder literals) {
+        String seen = "";
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                int end = pattern.indexOf('\'', i+1);
+                if (end < 0) return false;
+                if (end == i+1) { // '' is a quote
+                    fields.append((char)0);
+                    literals.append('\'');
+                } else {
+                    for (int j = i+1; j < end; j++) {
+                        fields.append((char)0);
+                        literals.append(pattern.charAt(j));
+                    }
+                }
+                i = end + 1;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                int end = i;
+                while (end < pattern.length() && pattern.charAt(end) == c) end++;
+                int width = end - i;
+                if (FIELDS.indexOf(c) < 0 || seen.indexOf(c) >= 0
+                 || width != (c == 'y' ? 4 : c == 'S' ? 3 : 2)) {
+                    return false;
+                }
+                seen += c;
+                for (int j = i; j < end; j++) {
+                    fields.append(c);
+                    literals.append((char)0);
+                }
+                i = end;
+            } else {
+                fields.append((char)0);
+                literals.append(c);
+                i++;
+            }
+        }
+        return true;
+    }
+
+    public String getPattern() {
+        return _pattern;
+    }
+
+    /**
+     * Parses a timestamp string.
+     *
+     * @return milliseconds since epoch
+     */
+    public long parse(CharSequence s) throws ParseException {
+        return parse(s, 0, s.length());
+    }
+
+    /**
+     * Parses a range of characters.
+     *
+     * @param s characters
+     * @param from index of the first character
+     * @param to index after the last character
+     * @return milliseconds since epoch
+     */
+    public long parse(CharSequence s, int from, int to) throws ParseException {
+        return parse(s, null, from, to);
+    }
+
+    /**
+     * Parses a range of bytes of single-byte characters.
+     *
+     * @param buf bytes
+     * @param from index of the first byte
+     * @param to index after the last byte
+     * @return milliseconds since epoch
+     */
+    public long parse(ByteBuffer buf, int from, int to) throws ParseException {
+        return parse(null, buf, from, to);
+    }
+
+    private long parse(CharSequence s, ByteBuffer buf, int from, int to)
+            throws ParseException {
+        if (!_compiled || to - from != _fields.length) {
+            return parseGeneral(s, buf, from, to);
+        }
+        int y = 0, M = 0, d = 0, H = 0, m = 0, sec = 0, S = 0;
+        for (int i = 0; i < _fields.length; i++) {
+            char c = s != null ? s.charAt(from + i) : (char)(buf.get(from + i) & 0xFF);
+            char field = _fields[i];
+            if (field == 0) {
+                if (c != _literals[i]) return parseGeneral(s, buf, from, to);
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) return parseGeneral(s, buf, from, to);
+            switch (field) {
+            case 'y': y   = y*10   + digit; break;
+            case 'M': M   = M*10   + digit; break;
+            case 'd': d   = d*10   + digit; break;
+            case 'H': H   = H*10   + digit; break;
+            case 'm': m   = m*10   + digit; break;
+            case 's': sec = sec*10 + digit; break;
+            case 'S': S   = S*10   + digit; break;
+            }
+        }
+        if (!_hasDate) {
+            y = 1970; M = 1; d = 1;
+        }
+        long timeOfDay = ((H*60L + m)*60L + sec)*1000L + S;
+
+        Day day = _day;
+        if (day == null || day._y != y || day._M != M || day._d != d) {
+            day = new Day(y, M, d);
+            _day = day;
+        }
+        if (day._uniform && timeOfDay < MILLIS_PER_DAY) {
+            return day._start + timeOfDay;
+        }
+        Calendar cal = _calendars.get();
+        cal.clear();
+        cal.set(y, M-1, d, H, m, sec);
+        cal.set(Calendar.MILLISECOND, S);
+        return cal.getTimeInMillis();
+    }
+
+    private long parseGeneral(CharSequence s, ByteBuffer buf, int from, int to)
+            throws ParseException {
+        String text;
+        if (s != null) {
+            text = s.subSequence(from, to).toString();
+        } else {
+            char[] chars = new char[to - from];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char)(buf.get(from + i) & 0xFF);
+            }
+            text = new String(chars);
+        }
+        ParsePosition pos = new ParsePosition(0);
+        Date date = _formats.get().parse(text, pos);
+        if (date == null) {
+            throw new ParseException("time string [" + text + "] does not match "
+                    + _pattern, pos.getErrorIndex());
+        }
+        return date.getTime();
+    }
+
+    /**
+     * Restores the per-thread state of a deserialized parser.
+     */
+    private Object readResolve() {
+        return new TimestampParser(_pattern, _timeZone);
+    }
+
+    public String toString() {
+        return "TimestampParser[" + _pattern + "]";
+    }
+
+    /**
+     * Start of a calendar day.
+     */
+    private class Day {
+        final int _y, _M, _d;
+        final long _start;
+        // a uniform day has no change of time zone offset
+        final boolean _uniform;
+
+        Day(int y, int M, int d) {
+            _y = y;
+            _M = M;
+            _d = d;
+            Calendar cal = _calendars.get();
+            cal.clear();
+            cal.set(y, M-1, d);
+            _start = cal.getTimeInMillis();
+            cal.add(Calendar.DATE, 1);
+            _uniform = cal.getTimeInMillis() - _start == MILLIS_PER_DAY;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package xstream.spark;
 
 import java.io.Serializable;
+import java.util.List;
 
 import org.apache.spark.Dependency;
 import org.apache.spark.Partition;
@@ -71,31 +72,33 @@ public class TimeseriesRDD extends RDD<Event> {
     /**
      * Computes the partition.
      * Each partition is one slot in underlying timeseries.
-     * <em>note</em>:  currently, for simplicity, partition index is equal 
-     * to slot index. A more intelligent solution would be to assign multiple
+     * <em>note</em>:  currently, for simplicity, a partition reads a single
+     * slot. A more intelligent solution would be to assign multiple
      * slots to a partition.
      */
     @Override
     public scala.collection.Iterator<Event> compute(Partition partition, 
             TaskContext taskCtx) {
         java.util.Iterator<Event> jIt = getTimeSeries()
-                .readBySlot(partition.index());
+                .readBySlot(((SlotPartition)partition).getSlotIndex());
         return JavaConverters.asScalaIteratorConverter(jIt).asScala();
     }
     
     /**
      * Gets the partitions.
      * Number of partition is equal to number of slot in underlying timeseries.
-     * <em>note</em>:  currently, for simplicity, partition index is equal 
-     * to slot index. A more intelligent solution would be to assign multiple
+     * Slot indices of a series written in shards are not contiguous, so a 
+     * partition remembers the index of its slot.
+     * <em>note</em>:  currently, for simplicity, a partition reads a single 
+     * slot. A more intelligent solution would be to assign multiple
      * time slots to a partition.
      */
     @Override
     public Partition[] getPartitions() {
-        int nSlot = getTimeSeries().getSlotCount();
-        Partition[] slots = new SlotPartition[nSlot];
-        for (int i = 0; i < nSlot; i++) {
-            slots[i] = new SlotPartition(i);
+        List<Integer> slotIndices = getTimeSeries().getSlotIndices();
+        Partition[] slots = new SlotPartition[slotIndices.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new SlotPartition(i, slotIndices.get(i));
         }
         return slots;
     }
@@ -143,15 +146,21 @@ public class TimeseriesRDD extends RDD<Event> {
      */
     class SlotPartition implements Partition, Serializable {
         private final int _idx;
+        private final int _slotIdx;
         
-        SlotPartition(int idx) {
+        SlotPartition(int idx, int slotIdx) {
             _idx = idx;
+            _slotIdx = slotIdx;
         }
         
         @Override
         public int index() {
             return _idx;
         }
+        
+        int getSlotIndex() {
+            return _slotIdx;
+        }
 
         @Override
         public boolean org$apache$spark$Partition$$super$equals(Object arg0) {
@@ -0,0 +1,88 @@
+package xstream.util;
+
+/**
+ * Reads values of arbitrary bit length from a byte array written by
+ * {@link BitWriter}.
+ *
+ * @author pinaki poddar
+ *
+ */
+public class BitReader {
+    private final byte[] _bytes;
+    private long _position;
+
+    public BitReader(byte[] bytes) {
+        _bytes = bytes;
+    }
+
+    public boolean readBit() {
+        int index = (int)(_position >>> 3);
+        checkRemaining(1);
+        boolean bit = (_bytes[index] & (0x80 >>> (int)(_position & 7))) != 0;
+        _position++;
+        return bit;
+    }
+
+    /**
+     * Reads given number of bits as low order bits of a value.
+     *
+     * @param n number of bits, from 0 to 64
+     */
+    public long readBits(int n) {
+        checkRemaining(n);
+        long value = 0;
+        while (n > 0) {
+            int index = (int)(_position >>> 3);
+            int available = 8 - (int)(_position & 7);
+            int k = Math.min(available, n);
+            int bits = ((_bytes[index] & 0xFF) >>> (available - k)) & ((1 << k) - 1);
+            value = (value << k) | bits;
+            _position += k;
+            n -= k;
+        }
+        return value;
+    }
+
+    /**
+     * Skips given number of bits.
+     */
+    public void skip(long n) {
+        if (n < 0 || _position + n > 8L * _bytes.length) {
+            throw new IllegalStateException("can not skip " + n + " bits at "
+                    + _position + " of " + (8L * _bytes.length) + " bits");
+        }
+        _position += n;
+    }
+
+    public long getPosition() {
+        return _position;
+    }
+
+    public long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            long b = readBits(8);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalStateException("malformed varint at bit " + _position);
+    }
+
+    public long readSignedVarint() {
+        return unzigzag(readVarint());
+    }
+
+    /**
+     * Reverses {@link BitWriter#zigzag(long)}.
+     */
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void checkRemaining(int n) {
+        if (_position + n > 8L * _bytes.length) {
+            throw new IllegalStateException("can not read " + n + " bits at "
+                    + _position + " of " + (8L * _bytes.length) + " bits");
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package xstream.util;
+
+import java.util.Arrays;
+
+/**
+ * Writes values of arbitrary bit length to a growing byte array.
+ * Bits are written most significant first.
+ *
+ * @see BitReader
+ *
+ * @author pinaki poddar
+ *
+ */
+public class BitWriter {
+    private byte[] _bytes;
+    private long _bitCount;
+
+    public BitWriter() {
+        this(256);
+    }
+
+    /**
+     * @param capacity initial number of bytes
+     */
+    public BitWriter(int capacity) {
+        _bytes = new byte[Math.max(8, capacity)];
+    }
+
+    /**
+     * Writes a single bit.
+     */
+    public void writeBit(boolean bit) {
+        int index = (int)(_bitCount >>> 3);
+        ensureCapacity(index + 1);
+        if (bit) {
+            _bytes[index] |= (byte)(0x80 >>> (int)(_bitCount & 7));
+        }
+        _bitCount++;
+    }
+
+    /**
+     * Writes low order bits of given value.
+     *
+     * @param value a value
+     * @param n number of low order bits to write, from 0 to 64
+     */
+    public void writeBits(long value, int n) {
+        ensureCapacity((int)((_bitCount + n + 7) >>> 3));
+        while (n > 0) {
+            int index = (int)(_bitCount >>> 3);
+            int free = 8 - (int)(_bitCount & 7);
+            int k = Math.min(free, n);
+            int bits = (int)(value >>> (n - k)) & ((1 << k) - 1);
+            _bytes[index] |= (byte)(bits << (free - k));
+            _bitCount += k;
+            n -= k;
+        }
+    }
+
+    /**
+     * Writes a non-negative value in groups of 7 bits, least significant
+     * group first, each group preceded by a bit that marks a following group.
+     */
+    public void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            writeBits(0x80 | (value & 0x7F), 8);
+            value >>>= 7;
+        }
+        writeBits(value, 8);
+    }
+
+    /**
+     * Writes a signed value as {@link #zigzag(long) zigzag} varint.
+     */
+    public void writeSignedVarint(long value) {
+        writeVarint(zigzag(value));
+    }
+
+    /**
+     * Maps signed values to non-negative values such that values of small
+     * magnitude have small codes: 0, -1, 1, -2, 2... map to 0, 1, 2, 3, 4...
+     */
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Writes all bits written to another writer.
+     */
+    public void write(BitWriter other) {
+        long n = other._bitCount;
+        int full = (int)(n >>> 3);
+        for (int i = 0; i < full; i++) {
+            writeBits(other._bytes[i] & 0xFF, 8);
+        }
+        int rest = (int)(n & 7);
+        if (rest > 0) {
+            writeBits((other._bytes[full] & 0xFF) >>> (8 - rest), rest);
+        }
+    }
+
+    public long getBitCount() {
+        return _bitCount;
+    }
+
+    /**
+     * Gets the bytes written so far. The last byte is padded with zero bits.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(_bytes, (int)((_bitCount + 7) >>> 3));
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > _bytes.length) {
+            _bytes = Arrays.copyOf(_bytes, Math.max(n, _bytes.length * 2));
+        }
+    }
+}
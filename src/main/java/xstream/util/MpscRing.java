@@ -0,0 +1,141 @@
+package xstream.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded lock-free queue for many producer threads and a single
+ * consumer thread.
+ * <br>
+ * Elements are held in a ring of fixed capacity. A producer claims a
+ * position by advancing the tail atomically and then publishes its element
+ * by advancing the sequence of that position. The consumer takes elements
+ * in the order positions were claimed, and releases a position by advancing
+ * its sequence by the capacity. Neither side takes a lock.
+ * <br>
+ * Only one thread may {@link #poll() consume}.
+ *
+ * @author pinaki poddar
+ *
+ * @param <E> type of element
+ */
+public class MpscRing<E> {
+    private final Object[] _elements;
+    private final AtomicLongArray _sequences;
+    private final int _mask;
+    private final AtomicLong _tail = new AtomicLong();
+    private volatile long _head;
+
+    private static final long PARK_NANOS = 10*1000;
+
+    /**
+     * Creates a ring.
+     *
+     * @param capacity maximum number of elements. Rounded up to a power
+     * of two.
+     */
+    public MpscRing(int capacity) {
+        Assert.assertTrue(capacity > 0 && capacity <= (1 << 30),
+                new IllegalArgumentException("ring capacity " + capacity
+                        + " must be positive and at most " + (1 << 30)));
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        _elements = new Object[size];
+        _sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            _sequences.set(i, i);
+        }
+        _mask = size - 1;
+    }
+
+    public int capacity() {
+        return _elements.length;
+    }
+
+    /**
+     * Adds an element if the ring is not full.
+     *
+     * @return false if the ring is full
+     */
+    public boolean offer(E e) {
+        Assert.assertNotNull(e, new IllegalArgumentException("null element"));
+        while (true) {
+            long tail = _tail.get();
+            int i = (int)tail & _mask;
+            long gap = _sequences.get(i) - tail;
+            if (gap == 0) {
+                if (_tail.compareAndSet(tail, tail + 1)) {
+                    _elements[i] = e;
+                    _sequences.lazySet(i, tail + 1);
+                    return true;
+                }
+            } else if (gap < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds an element, waiting while the ring is full.
+     */
+    public void put(E e) {
+        int attempt = 0;
+        while (!offer(e)) {
+            if (++attempt < 16) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Removes the earliest element. Must be called by the consumer thread.
+     *
+     * @return null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long head = _head;
+        int i = (int)head & _mask;
+        if (_sequences.get(i) != head + 1) {
+            return null;
+        }
+        E e = (E)_elements[i];
+        _elements[i] = null;
+        _sequences.lazySet(i, head + _elements.length);
+        _head = head + 1;
+        return e;
+    }
+
+    /**
+     * Gets the number of elements that have been removed.
+     */
+    public long consumed() {
+        return _head;
+    }
+
+    /**
+     * Gets the number of positions that have been claimed by producers.
+     * An element is added soon after its position is claimed.
+     */
+    public long claimed() {
+        return _tail.get();
+    }
+
+    /**
+     * Gets the approximate number of elements in the ring.
+     */
+    public int size() {
+        return (int)Math.max(0, _tail.get() - _head);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public String toString() {
+        return "MpscRing[" + size() + " of " + capacity() + "]";
+    }
+}
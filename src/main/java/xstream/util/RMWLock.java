@@ -1,5 +1,6 @@
 package xstream.util;
 
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import oracle.kv.Consistency;
@@ -23,12 +24,26 @@ import oracle.kv.table.WriteOptions;
 public class RMWLock {
     
     private final long _lockTimeoutMs;
-    private final int  _maxRetries;
+    private final Stats _stats = new Stats();
     
     private static int READ_TIME_OUT_MS  = 1000;
     private static int WRITE_TIME_OUT_MS = 2000;
     private static int LOCK_TIME_OUT_MS  = 10*WRITE_TIME_OUT_MS;
     
+    // bounds of the wait between two attempts. The wait doubles after
+    // every conflict and is randomized to spread competing writers apart
+    public static long INITIAL_BACKOFF_MS = 2;
+    public static long MAX_BACKOFF_MS     = 500;
+    
+    // names of counters 
+    public static final String ATTEMPTS     = "attempts";
+    public static final String CONFLICTS    = "conflicts";
+    public static final String FAILURES     = "failures";
+    public static final String WAIT_TIME_MS = "waitTimeMs";
+    
+    // counters aggregated over all locks
+    private static final Stats _globalStats = new Stats();
+    
     public static ReadOptions READ_OPTION = new ReadOptions(
             Consistency.ABSOLUTE, 
             READ_TIME_OUT_MS, TimeUnit.MILLISECONDS);
@@ -50,16 +65,40 @@ public class RMWLock {
      */
     public RMWLock(long lockTimeoutMs) {
         _lockTimeoutMs = lockTimeoutMs;
-        _maxRetries = (int)Math.max(1, _lockTimeoutMs/WRITE_TIME_OUT_MS);
+    }
+    
+    /**
+     * Gets the counters of attempts, conflicts, failures and time spent
+     * waiting between attempts by this lock.
+     * 
+     * @return counters of this lock
+     */
+    public Stats getStats() {
+        return _stats;
+    }
+    
+    /**
+     * Gets the counters of attempts, conflicts, failures and time spent
+     * waiting between attempts aggregated over all locks in this process.
+     * 
+     * @return counters of all locks
+     */
+    public static Stats getGlobalStats() {
+        return _globalStats;
     }
 
     /**
      * Updates given row with given update function.
+     * <br>
+     * If the row has been modified in the database since it was read, the
+     * update function is applied again to the latest row. Attempts are 
+     * spaced apart by an exponentially growing, randomized wait until 
+     * the lock time out expires.
      * 
      * @param store connection to a store
      * @param row a row to be updated. The row may not even exist in database.
      * In such case, the must have all its primary key fields set.
-     * @param updater an update function
+     * @param updater an update function. May be called more than once.
      * @return the updated row
      */
     public Row update(KVStore store, Row row, Updater updater) {
@@ -68,47 +107,65 @@ public class RMWLock {
         }
         Version version = row.getVersion();
         if (version == null) { // row is not retrieved from data store
+            count(ATTEMPTS, 1);
             updater.update(row);
             ReturnRow rr = row.getTable().createReturnRow(Choice.ALL);
             version = store.getTableAPI().put(row, rr, WRITE_OPTION);
             if (version == null) {
+                count(FAILURES, 1);
                 throw new RuntimeException();
             } else {
                 return row;
             }
         }
-        return update(store, row, version, updater, _maxRetries);
-    }
-
-    /**
-     * 
-     * @param store
-     *            connection to store
-     * @param row
-     *            record to be updated
-     * @param latestVersion
-     *            the version of the record to match for update
-     * @param updater a function to update the row
-     * @param attempt
-     *            number of  attempts to update
-     * @return the updated row
-     */
-    private Row update(KVStore store, Row row, Version version,
-             Updater updater, int attempt) {
-        if (attempt <= 0) {
-            throw new RuntimeException("cannot lock row " + row + " in " + _lockTimeoutMs + "ms");
-        }
-        updater.update(row);
-        ReturnRow rr = row.getTable().createReturnRow(Choice.ALL);
-        version = store.getTableAPI().putIfVersion(row, version, rr, WRITE_OPTION);
-        
-        if (version == null) {
+        long deadline = System.currentTimeMillis() + _lockTimeoutMs;
+        long backoff = INITIAL_BACKOFF_MS;
+        for (int attempt = 1; ; attempt++) {
+            count(ATTEMPTS, 1);
+            updater.update(row);
+            ReturnRow rr = row.getTable().createReturnRow(Choice.ALL);
+            if (store.getTableAPI().putIfVersion(row, version, rr, WRITE_OPTION) != null) {
+                return row;
+            }
+            count(CONFLICTS, 1);
             if (rr.getVersion() == null) {
+                count(FAILURES, 1);
                 throw new RuntimeException("putifversion failed and return row version is also null");
             }
-            return update(store, rr, rr.getVersion(), updater, --attempt);
-        } else {
-            return row;
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                count(FAILURES, 1);
+                throw new RuntimeException("cannot lock row " + row + " in " 
+                        + _lockTimeoutMs + "ms after " + attempt + " attempts");
+            }
+            long wait = Math.min(remaining, jitter(backoff));
+            sleep(wait);
+            count(WAIT_TIME_MS, wait);
+            backoff = Math.min(MAX_BACKOFF_MS, backoff*2);
+            row = rr;
+            version = rr.getVersion();
         }
     }
+    
+    /**
+     * Randomizes given wait between half and full of its value.
+     */
+    private static long jitter(long backoff) {
+        long half = Math.max(1, backoff/2);
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+    
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for lock", ex);
+        }
+    }
+    
+    private void count(String counter, long delta) {
+        _stats.add(counter, delta);
+        _globalStats.add(counter, delta);
+    }
 }
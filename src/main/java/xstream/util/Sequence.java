@@ -1,5 +1,15 @@
 package xstream.util;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import oracle.kv.KVStore;
 import oracle.kv.table.PrimaryKey;
 import oracle.kv.table.Row;
@@ -11,105 +21,237 @@ import oracle.kv.table.Table;
  * A sequence provides series of monotonic, unique values. These values
  * can be useful for an application as primary key or other identifiers.
  * <br>
+ * Values are reserved from the database in blocks and handed out from
+ * memory. A sequence is thread-safe: values of the current block are
+ * handed out by an atomic cursor without locking. When usage of the
+ * current block crosses a watermark, the next block is reserved in the
+ * background so that callers rarely wait for the database.
+ * <br>
+ * The size of a block adapts to the rate of allocation. A block that is
+ * used up quickly is followed by a larger block, up to a maximum, so that
+ * the database row of a busy sequence is updated less often.
+ * <br>
  * Usage:
- * 
- *  
+ *
+ *
  * @author pinaki poddar
  *
  */
-public class Sequence implements Updater {
+public class Sequence {
     private KVStore _store;
-    
+
     // row that represents this sequence
     private Row _row;
     // master table where this sequence is stored as a row
     private Table _table;
-    // name of this sequence used as an identifier 
+    // name of this sequence used as an identifier
     private final String _name;
-    
-    // initial value of this sequence. if the sequence exists, and
-    // its next available value is greater then initial value 
-    private   long _initialValue;
-    // the number of values reserved in a batch
-    private  final int _length;
-    
-    private int _cursor;
-    
+
+    // block of values being handed out
+    private volatile Block _block;
+    // block being reserved in background. guarded by this
+    private Future<Block> _nextBlock;
+    // serializes reservations of blocks
+    private final Object _reserveLock = new Object();
+
+    // the number of values reserved in a batch. adapts between the bounds
+    private int _length;
+    private final int _minLength;
+    private final int _maxLength;
+    // fraction of a block used before next block is reserved
+    private final double _watermark;
+    private long _lastReservationTime;
+
     private final RMWLock _lock;
-    
+
     public static int DEFAULT_LENGTH   = 100;
     public static int DEFAULT_ATTEMPTS = 10;
+    public static double DEFAULT_WATERMARK = 0.75;
+    // a block used up faster than this is followed by a larger block
+    public static long TARGET_RESERVATION_INTERVAL_MS = 1000;
 
     // name of the field that stores the current value of the sequence
     public static final String NAME       = "name";
     public static final String NEXT_VALUE = "next";
-    
+
+    private static final Logger _logger = Logger.getLogger(Sequence.class.getName());
+
+    private static final ExecutorService _prefetcher =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "sequence-prefetch");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
     /**
-     * Creates a in-memory sequence possibly reading its current state 
+     * Creates a in-memory sequence possibly reading its current state
      * from database.
-     * 
-     * @param api the connection to store
+     *
+     * @param store the connection to store
      * @param table the table containing the sequences as row
      * @param name name of the sequence
      * @param length number of values to reserve in a batch
-     * @param maxReservationAttempt how many times to try to reserve
-     * @param start the starting value if not known pass any negative number
-     * @param isNew if true then no row of the given name must exist in given table
+     * @param maxLength maximum number of values to reserve in a batch
+     * @param watermark fraction of a batch used before the next batch
+     * is reserved. A value of 1 or more disables reservation in advance.
+     * @param initial the starting value if the sequence does not exist
      */
-    Sequence(KVStore store, Table table, String name, 
-            int length, long initial) {
+    Sequence(KVStore store, Table table, String name,
+            int length, int maxLength, double watermark, long initial) {
+        Assert.assertTrue(length > 0, new IllegalArgumentException(
+                "sequence increment " + length + " must be positive"));
         _store = store;
         _table = table;
        _name   = name;
        _length = length;
+       _minLength = length;
+       _maxLength = Math.max(length, maxLength);
+       _watermark = watermark;
        _lock = new RMWLock();
-       
+
        PrimaryKey pk = _table.createPrimaryKey();
        pk.put(NAME, _name);
        _row = _store.getTableAPI().get(pk, null);
        if (_row == null) {
-           _initialValue = initial;
            _row = _table.createRow();
            _row.put(NAME, _name);
-           _row.put(NEXT_VALUE, _initialValue +_length);
-       } 
-       _row = _lock.update(_store, _row, this);
-       reset(_row);
+           _row.put(NEXT_VALUE, initial);
+       }
+       _block = reserve();
     }
-    
-    private void reset(Row row) {
-        _initialValue = _row.get(NEXT_VALUE).asLong().get() - _length;
-        _cursor = 0;
-    }
-    
-    
+
     /**
-     * Gets next value in this sequence. Repeated call to this method 
-     * would return numbers that are strictly monotonic, but not 
+     * Gets next value in this sequence. Repeated call to this method
+     * would return numbers that are strictly monotonic, but not
      * necessarily contiguous.
-     *  
+     *
      * @return a number
      */
     public long next() {
-        if (_cursor >= _length) {
-            _row = _lock.update(_store, _row, this);
-            reset(_row);
+        while (true) {
+            Block block = _block;
+            long v = block._cursor.getAndIncrement();
+            if (v < block._end) {
+                if (v == block._prefetchAt) {
+                    prefetch();
+                }
+                return v;
+            }
+            advance(block);
+        }
+    }
+
+    /**
+     * Starts reserving the next block in background, unless already started.
+     */
+    private synchronized void prefetch() {
+        if (_nextBlock != null) return;
+        _nextBlock = _prefetcher.submit(new Callable<Block>() {
+            @Override
+            public Block call() {
+                return reserve();
+            }
+        });
+    }
+
+    /**
+     * Replaces the given exhausted block with the next block. Waits for
+     * the next block if it is being reserved in background, or reserves
+     * it now.
+     *
+     * @param exhausted the block that has no more value
+     */
+    private synchronized void advance(Block exhausted) {
+        if (_block != exhausted) return; // another thread has advanced
+        Future<Block> pending = _nextBlock;
+        _nextBlock = null;
+        Block next = null;
+        if (pending != null) {
+            try {
+                next = pending.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while reserving " + this, ex);
+            } catch (ExecutionException ex) {
+                _logger.log(Level.WARNING, "failed to reserve " + this
+                        + " in background. trying again", ex.getCause());
+            }
         }
-        return _initialValue + _cursor++;
+        _block = next != null ? next : reserve();
     }
-    
-    @Override
-    public void update(Row row) {
-        long currentValue = row.get(NEXT_VALUE).asLong().get();
-        row.put(NEXT_VALUE,  currentValue + _length);
+
+    /**
+     * Reserves a block of values in the database.
+     *
+     * @return a new block
+     */
+    private Block reserve() {
+        synchronized (_reserveLock) {
+            final int length = adaptLength();
+            _row = _lock.update(_store, _row, new Updater() {
+                @Override
+                public void update(Row row) {
+                    long currentValue = row.get(NEXT_VALUE).asLong().get();
+                    row.put(NEXT_VALUE,  currentValue + length);
+                }
+            });
+            long end = _row.get(NEXT_VALUE).asLong().get();
+            Block block = new Block(end - length, end, _watermark);
+            _logger.log(Level.FINE, "reserved " + _name + " " + block);
+            return block;
+        }
+    }
+
+    /**
+     * Adjusts the number of values to reserve to the rate at which
+     * the values have been used.
+     */
+    private int adaptLength() {
+        long now = System.currentTimeMillis();
+        if (_lastReservationTime > 0) {
+            long elapsed = now - _lastReservationTime;
+            if (elapsed < TARGET_RESERVATION_INTERVAL_MS/2) {
+                _length = Math.min(_maxLength, _length*2);
+            } else if (elapsed > TARGET_RESERVATION_INTERVAL_MS*4) {
+                _length = Math.max(_minLength, _length/2);
+            }
+        }
+        _lastReservationTime = now;
+        return _length;
     }
-    
+
     public long current() {
-        return _initialValue + _cursor;
+        Block block = _block;
+        return Math.min(block._cursor.get(), block._end);
     }
-    
+
     public String toString() {
-        return _name + ":" + current()
-                + " (" + _initialValue + "-" + (_initialValue+_length) + "]";
+        Block block = _block;
+        return _name + ":" + current() + " " + block;
+    }
+
+    /**
+     * A contiguous range of reserved values.
+     *
+     */
+    private static class Block {
+        final long _start;
+        final long _end;
+        final long _prefetchAt;
+        final AtomicLong _cursor;
+
+        Block(long start, long end, double watermark) {
+            _start = start;
+            _end = end;
+            _prefetchAt = start + (long)Math.ceil((end - start) * watermark);
+            _cursor = new AtomicLong(start);
+        }
+
+        public String toString() {
+            return "(" + _start + "-" + _end + "]";
+        }
     }
 }
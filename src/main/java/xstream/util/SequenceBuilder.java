@@ -6,7 +6,9 @@ import oracle.kv.table.Table;
 public class SequenceBuilder {
     private KVStore _store;
     private String _name;
-    private int _increment;
+    private int _increment = Sequence.DEFAULT_LENGTH;
+    private int _maxIncrement = -1;
+    private double _watermark = Sequence.DEFAULT_WATERMARK;
     private long _initialValue;
     
     public static String SEQUENCE_TABLE = "Sequences";
@@ -19,7 +21,9 @@ public class SequenceBuilder {
             sequenceTable = defineSequenceTable(_store, SEQUENCE_TABLE);
         }
         return new Sequence(_store, sequenceTable, _name, 
-                _increment, _initialValue);
+                _increment, 
+                _maxIncrement < 0 ? 16*_increment : _maxIncrement,
+                _watermark, _initialValue);
     }
     
     public SequenceBuilder withStore(KVStore store) {
@@ -37,6 +41,32 @@ public class SequenceBuilder {
         return this;
     }
     
+    /**
+     * Sets the maximum number of values reserved in a batch. The batch
+     * size grows from the {@link #withIncrement(int) increment} up to this
+     * maximum when values are used up quickly.
+     * 
+     * @param max maximum batch size. By default, 16 times the increment.
+     * @return this same builder
+     */
+    public SequenceBuilder withMaxIncrement(int max) {
+        _maxIncrement = max;
+        return this;
+    }
+    
+    /**
+     * Sets the fraction of a batch to be used before the next batch is
+     * reserved in background.
+     * 
+     * @param watermark a fraction between 0 and 1. A value of 1 or more
+     * reserves next batch only when current batch is exhausted.
+     * @return this same builder
+     */
+    public SequenceBuilder withWatermark(double watermark) {
+        _watermark = watermark;
+        return this;
+    }
+    
     public SequenceBuilder withInitialValue(int value) {
         _initialValue = value;
         return this;
@@ -1,9 +1,90 @@
 package xstream.util;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of named counters that can be updated from multiple threads.
+ *
+ * @author pinaki poddar
+ *
+ */
 public class Stats {
+    private final ConcurrentMap<String, AtomicLong> _counters =
+            new ConcurrentHashMap<String, AtomicLong>();
 
     public Stats() {
-        // TODO Auto-generated constructor stub
+    }
+
+    /**
+     * Increments the given counter by one.
+     *
+     * @param name name of a counter
+     * @return the incremented value
+     */
+    public long increment(String name) {
+        return add(name, 1);
+    }
+
+    /**
+     * Adds given amount to the given counter.
+     *
+     * @param name name of a counter. The counter is created if necessary.
+     * @param delta amount to add
+     * @return the updated value
+     */
+    public long add(String name, long delta) {
+        return counter(name).addAndGet(delta);
+    }
+
+    /**
+     * Gets current value of the given counter.
+     *
+     * @param name name of a counter
+     * @return zero if the counter has never been updated
+     */
+    public long get(String name) {
+        AtomicLong counter = _counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Gets current value of all counters.
+     *
+     * @return counter values sorted by counter name
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : _counters.entrySet()) {
+            values.put(e.getKey(), e.getValue().get());
+        }
+        return values;
+    }
+
+    /**
+     * Sets all counters to zero.
+     */
+    public void reset() {
+        for (AtomicLong counter : _counters.values()) {
+            counter.set(0);
+        }
+    }
+
+    private AtomicLong counter(String name) {
+        AtomicLong counter = _counters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = _counters.putIfAbsent(name, newCounter);
+            if (counter == null) counter = newCounter;
+        }
+        return counter;
+    }
+
+    public String toString() {
+        return snapshot().toString();
     }
 
 }
@@ -3,14 +3,23 @@ package xstream;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -18,15 +27,20 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import oracle.kv.KVStore;
+import oracle.kv.table.PrimaryKey;
 import oracle.kv.table.RecordDef;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
 import xstream.Event;
 import xstream.ReadableTimeSeries;
 import xstream.TimeSeries;
 import xstream.TimeSeriesBuilder;
 import xstream.WritableTimeSeries;
 import xstream.util.NoSQLURL;
+import xstream.util.RMWLock;
 import xstream.util.Sequence;
 import xstream.util.SequenceBuilder;
+import xstream.util.Updater;
 
 public class TestTimeSeries {
     static NoSQLURL storeURL = new NoSQLURL("nosql://localhost:5000/kvstore/");
@@ -129,6 +143,105 @@ public class TestTimeSeries {
         }
     }
 
+    @Test
+    public void testSharedSequenceIsUnique() throws Exception {
+        final KVStore store = storeURL.openStore();
+        String name = "sharedsequence" + System.currentTimeMillis();
+        // two instances of the same sequence, each shared by threads
+        final Sequence[] sequences = {
+                new SequenceBuilder().withStore(store).withName(name).withIncrement(10).build(),
+                new SequenceBuilder().withStore(store).withName(name).withIncrement(10).build()};
+        int N = 8;
+        final int M = 200;
+        ExecutorService threadPool = Executors.newFixedThreadPool(N);
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        for (int i = 0; i < N; i++) {
+            final Sequence seq = sequences[i%2];
+            results.add(threadPool.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() {
+                    long[] values = new long[M];
+                    for (int j = 0; j < M; j++) {
+                        values[j] = seq.next();
+                    }
+                    return values;
+                }
+            }));
+        }
+        threadPool.shutdown();
+        assertTrue(threadPool.awaitTermination(1, TimeUnit.MINUTES));
+        Set<Long> all = new HashSet<Long>();
+        for (Future<long[]> result : results) {
+            long[] values = result.get();
+            for (int j = 0; j < M; j++) {
+                if (j > 0) assertTrue(values[j] > values[j-1]);
+                assertTrue("duplicate value " + values[j], all.add(values[j]));
+            }
+        }
+        assertEquals(N*M, all.size());
+    }
+    
+    @Test
+    public void testLockAppliesEveryUpdate() throws Exception {
+        final KVStore store = storeURL.openStore();
+        final Table table = SequenceBuilder.defineSequenceTable(store, 
+                SequenceBuilder.SEQUENCE_TABLE);
+        Row row = table.createRow();
+        row.put(Sequence.NAME, "lock" + System.currentTimeMillis());
+        row.put(Sequence.NEXT_VALUE, 0L);
+        new RMWLock().update(store, row, increment());
+        final PrimaryKey pk = row.createPrimaryKey();
+        
+        // an update of a row that has changed since it was read is retried
+        long conflicts = RMWLock.getGlobalStats().get(RMWLock.CONFLICTS);
+        Row stale = store.getTableAPI().get(pk, RMWLock.READ_OPTION);
+        new RMWLock().update(store, 
+                store.getTableAPI().get(pk, RMWLock.READ_OPTION), increment());
+        RMWLock lock = new RMWLock();
+        lock.update(store, stale, increment());
+        assertEquals(1, lock.getStats().get(RMWLock.CONFLICTS));
+        assertEquals(2, lock.getStats().get(RMWLock.ATTEMPTS));
+        assertTrue(lock.getStats().get(RMWLock.WAIT_TIME_MS) > 0);
+        assertEquals(0, lock.getStats().get(RMWLock.FAILURES));
+        assertTrue(RMWLock.getGlobalStats().get(RMWLock.CONFLICTS) > conflicts);
+        
+        // every update of threads in contention is applied
+        int N = 8;
+        final int M = 20;
+        ExecutorService threadPool = Executors.newFixedThreadPool(N);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (int i = 0; i < N; i++) {
+            results.add(threadPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    RMWLock lock = new RMWLock();
+                    for (int j = 0; j < M; j++) {
+                        lock.update(store, 
+                                store.getTableAPI().get(pk, RMWLock.READ_OPTION), 
+                                increment());
+                    }
+                }
+            }));
+        }
+        threadPool.shutdown();
+        assertTrue(threadPool.awaitTermination(1, TimeUnit.MINUTES));
+        for (Future<?> result : results) {
+            result.get();
+        }
+        Row latest = store.getTableAPI().get(pk, RMWLock.READ_OPTION);
+        assertEquals(3 + N*M, latest.get(Sequence.NEXT_VALUE).asLong().get());
+    }
+    
+    private static Updater increment() {
+        return new Updater() {
+            @Override
+            public void update(Row row) {
+                row.put(Sequence.NEXT_VALUE, 
+                        row.get(Sequence.NEXT_VALUE).asLong().get() + 1);
+            }
+        };
+    }
+
     @Test
     public void testClosedSeries() {
         String seriesName = "WritableSeries" + System.currentTimeMillis();
@@ -217,18 +330,978 @@ public class TestTimeSeries {
         ReadableTimeSeries rseries = new TimeSeriesBuilder()
                 .withSeriesURL(storeURL + seriesName)
                 .openForRead();
+        EventField.IntField x = rseries.getEventDefinition().intField("x");
         Iterator<Event> events = rseries.read();
         int i = 0;
         while (events.hasNext()) {
             Event e = events.next();
             assertEquals(i, e.getTimestamp());
             assertEquals(i, e.get("x"));
+            assertEquals(i, x.getInt(e));
             i++;
         }
         assertEquals(i, N);
         
     }
 
+    @Test
+    public void testAsyncFlush() {
+        String seriesName = "Async" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .withAsyncFlush(4, 2)
+                .create();
+        assertTrue(wseries.isAsyncFlush());
+        int N = L*5+3;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i});
+        }
+        wseries.close();
+
+        validateSeries(wseries, N, N/L+1, 0, N-1);
+    }
+
+    @Test
+    public void testWriteBatch() {
+        String seriesName = "Batch" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .create();
+        EventBatch batch = wseries.newEventBatch(7);
+        int[] x = batch.getInts("x");
+        int N = L*5+3;
+        for (int i = 0; i < N; i++) {
+            x[batch.add(i)] = i;
+            if (batch.isFull()) {
+                wseries.write(batch);
+                batch.clear();
+            }
+        }
+        wseries.write(batch);
+        wseries.close();
+
+        validateSeries(wseries, N, N/L+1, 0, N-1);
+    }
+
+    @Test
+    public void testReorderWindow() {
+        String seriesName = "Reorder" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .withReorderEventCount(4)
+                .create();
+        int N = L*5;
+        // swap each pair of events, so that late events cross slot edges
+        for (int i = 0; i < N; i += 2) {
+            wseries.write(i+1, new Object[] {i+1});
+            wseries.write(i, new Object[] {i});
+        }
+        wseries.close();
+
+        validateSeries(wseries, N, N/L, 0, N-1);
+    }
+
+    @Test
+    public void testCompactSlots() {
+        String seriesName = "Compact" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER", "y DOUBLE", "s STRING")
+                .withSlotEventLimit(L)
+                .withCompactSlots()
+                .create();
+        int N = L*2+7;
+        for (int i = 0; i < N; i++) {
+            wseries.write(1000L*i, new Object[] {i, i/10.0, "s" + i%3});
+        }
+        wseries.close();
+        
+        validateSeries(wseries, N, N/L+1, 0, 1000L*(N-1));
+        
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        Iterator<Event> events = rseries.read();
+        int i = 0;
+        while (events.hasNext()) {
+            Event e = events.next();
+            assertEquals(1000L*i, e.getTimestamp());
+            assertEquals(i, e.get("x"));
+            assertEquals(i/10.0, e.get("y"));
+            assertEquals("s" + i%3, e.get("s"));
+            i++;
+        }
+        assertEquals(N, i);
+        
+        events = rseries.readWhereEquals("s", "s1", -1, -1);
+        int matched = 0;
+        while (events.hasNext()) {
+            assertEquals("s1", events.next().get("s"));
+            matched++;
+        }
+        assertEquals(N/3, matched);
+        
+        try {
+            new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName + "Boolean")
+                .withFieldDefinitions("x INTEGER", "b BOOLEAN")
+                .withCompactSlots()
+                .create();
+            fail("expected error for a property that can not be compacted");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWriteAheadLogReplay() {
+        String seriesName = "WAL" + System.currentTimeMillis();
+        File walDir = new File(System.getProperty("java.io.tmpdir"), seriesName);
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER", "s STRING")
+                .withSlotEventLimit(L)
+                .withMetadataUpdate(Integer.MAX_VALUE, Long.MAX_VALUE)
+                .withWriteAheadLog(walDir)
+                .create();
+        int N = L*2+5;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i, "s" + i});
+        }
+        // the writer is abandoned without close. The last slot is not flushed
+        // and the aggregates of the flushed slots are not yet recorded
+        File segments = new File(walDir, seriesName);
+        assertEquals(N/L + 1, segments.list().length);
+        
+        wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withWriteAheadLog(walDir)
+                .openForWrite();
+        wseries.close();
+        assertEquals(0, segments.list().length);
+        assertEquals(N, wseries.getEventCount());
+        assertEquals(N/L + 1, wseries.getSlotCount());
+        
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        Iterator<Event> events = rseries.read();
+        int i = 0;
+        while (events.hasNext()) {
+            Event e = events.next();
+            assertEquals(i, e.getTimestamp());
+            assertEquals("s" + i, e.get("s"));
+            i++;
+        }
+        assertEquals(N, i);
+        
+        // a uniform series continues after the replayed events
+        seriesName = "UniformWAL" + System.currentTimeMillis();
+        long interval = 100;
+        wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .withUniformInterval(interval)
+                .withMetadataUpdate(Integer.MAX_VALUE, Long.MAX_VALUE)
+                .withWriteAheadLog(walDir)
+                .create();
+        wseries.write(0, new Object[] {0});
+        for (i = 1; i < N; i++) {
+            wseries.writeNext(new Object[] {i});
+        }
+        // the writer is abandoned before the aggregates of its flushed 
+        // slots are recorded. They are recorded on replay.
+        wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withWriteAheadLog(walDir)
+                .openForWrite();
+        assertEquals(N, wseries.getEventCount());
+        assertEquals((N-1)*interval, wseries.getTimeRange().getEndTime());
+        for (i = N; i < 2*N; i++) {
+            wseries.writeNext(new Object[] {i});
+        }
+        wseries.close();
+        assertEquals(2*N, wseries.getEventCount());
+        
+        rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        events = rseries.read();
+        i = 0;
+        while (events.hasNext()) {
+            Event e = events.next();
+            assertEquals(i*interval, e.getTimestamp());
+            assertEquals(i, e.get("x"));
+            i++;
+        }
+        assertEquals(2*N, i);
+    }
+
+    @Test
+    public void testCoalescedMetadataUpdate() {
+        String seriesName = "Metadata" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .withMetadataUpdate(3, Long.MAX_VALUE)
+                .create();
+        int N = L*7;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i});
+        }
+        // six slots are flushed and the store is updated after every third
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        validateSeries(rseries, 6*L, 6, 0, 6*L-1);
+        
+        wseries.close();
+        validateSeries(wseries, N, 7, 0, N-1);
+        rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        validateSeries(rseries, N, 7, 0, N-1);
+    }
+
+    @Test
+    public void testUniformSeries() {
+        String seriesName = "Uniform" + System.currentTimeMillis();
+        int L = 10;
+        long interval = 100;
+        long t0 = 5000;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .withUniformInterval(interval)
+                .create();
+        assertEquals(interval, wseries.getTimeInterval());
+        int N = L*3+4;
+        wseries.write(t0, new Object[] {0});
+        for (int i = 1; i < N; i++) {
+            wseries.writeNext(new Object[] {i});
+        }
+        try {
+            wseries.write(t0 + N*interval + 1, new Object[] {N});
+            fail("expected error for timestamp off the interval");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        wseries.close();
+        validateSeries(wseries, N, N/L+1, t0, t0 + (N-1)*interval);
+        
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        // a range that starts and ends in the middle of slots
+        int from = L/2, to = 2*L + 3;
+        Iterator<Event> events = rseries.readByTime(t0 + from*interval - 1, 
+                t0 + to*interval + 1);
+        int i = from;
+        while (events.hasNext()) {
+            Event e = events.next();
+            assertEquals(t0 + i*interval, e.getTimestamp());
+            assertEquals(i, e.get("x"));
+            i++;
+        }
+        assertEquals(to + 1, i);
+    }
+
+    @Test
+    public void testSlotByteSize() {
+        String seriesName = "SlotSize" + System.currentTimeMillis();
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER", "s STRING")
+                .withSlotEventLimit(100)
+                .withSlotByteSize(200, 2)
+                .create();
+        // each event is estimated at 8+4+(4+40) bytes, so a slot holds 4 events
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 40; i++) s.append('s');
+        int N = 20;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i, s.toString()});
+        }
+        wseries.close();
+        validateSeries(wseries, N, N/4, 0, N-1);
+    }
+
+    @Test
+    public void testCompactSlotByteSize() {
+        String seriesName = "CompactSlotSize" + System.currentTimeMillis();
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER", "y DOUBLE")
+                .withCompactSlots()
+                .withSlotEventLimit(100000)
+                .withSlotByteSize(2000, 2)
+                .create();
+        // each event is estimated at 8+4+8 bytes, so a slot of plain
+        // events would hold 100 events. Encoded events are far smaller.
+        int N = 20000;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i*1000L, new Object[] {i, i*0.5});
+        }
+        wseries.close();
+        assertTrue(wseries.getPackedRatio() < 0.5);
+        assertTrue(wseries.getSlotCount() > 1);
+        assertTrue(wseries.getSlotCount() < N/100/2);
+        validateSeries(wseries, N, wseries.getSlotCount(), 0, (N-1)*1000L);
+    }
+
+    @Test
+    public void testSharedWriter() throws Exception {
+        String seriesName = "Shared" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .create();
+        final SharedTimeSeriesWriter writer = new SharedTimeSeriesWriter(wseries, 64);
+        final int P = 4;
+        final int M = 25;
+        // the events of producers interleave in time
+        writeShared(writer, P, M, 1);
+        writer.close();
+        
+        assertEquals(P*M, wseries.getEventCount());
+        assertMerged(seriesName, P*M);
+    }
+
+    @Test
+    public void testSharedWriterOverlappingProducers() throws Exception {
+        String seriesName = "SharedOverlap" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .create();
+        final SharedTimeSeriesWriter writer = new SharedTimeSeriesWriter(wseries, 16);
+        final int P = 4;
+        final int M = 60;
+        // the time range of each producer overlaps half of the next
+        writeShared(writer, P, M, M/2);
+        writer.close();
+        
+        assertEquals(P*M, wseries.getEventCount());
+        assertMerged(seriesName, P*M);
+    }
+    
+    @Test
+    public void testSharedWriterHoldsBoundedEvents() throws Exception {
+        String seriesName = "SharedBounded" + System.currentTimeMillis();
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(10)
+                .create();
+        final int C = 16;
+        final int M = 100;
+        final SharedTimeSeriesWriter writer = new SharedTimeSeriesWriter(wseries, C);
+        SharedTimeSeriesWriter.Producer slow = writer.newProducer();
+        final SharedTimeSeriesWriter.Producer fast = writer.newProducer();
+        final AtomicLong written = new AtomicLong();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < M; i++) {
+                    long t = 1000 + i;
+                    fast.write(t, new Object[] {(int)t});
+                    written.incrementAndGet();
+                }
+                fast.close();
+            }
+        });
+        thread.start();
+        // the events of the fast producer are held for the slow one, 
+        // which has written nothing, until the merge and the ring are full
+        thread.join(500);
+        assertTrue(thread.isAlive());
+        assertTrue(written.get() <= 2*C + 1);
+        
+        for (int t = 0; t < M; t++) {
+            slow.write(t, new Object[] {t});
+        }
+        slow.close();
+        thread.join(60*1000);
+        assertFalse(thread.isAlive());
+        writer.close();
+        
+        assertEquals(2*M, wseries.getEventCount());
+        assertMerged(seriesName, 2*M);
+    }
+
+    /**
+     * Writes M events from each of P producer threads. Producer p writes
+     * timestamps p, p+P, p+2P,... starting after p*offset events of P.
+     */
+    private void writeShared(final SharedTimeSeriesWriter writer, 
+            final int P, final int M, final int offset) throws Exception {
+        ExecutorService producers = Executors.newFixedThreadPool(P);
+        for (int p = 0; p < P; p++) {
+            final int first = p;
+            final SharedTimeSeriesWriter.Producer producer = writer.newProducer();
+            producers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < M; i++) {
+                        long t = (long)P*(i + first*offset) + first;
+                        producer.write(t, new Object[] {(int)t});
+                    }
+                    producer.close();
+                }
+            });
+        }
+        producers.shutdown();
+        assertTrue(producers.awaitTermination(1, TimeUnit.MINUTES));
+    }
+    
+    /**
+     * Asserts that a series has given number of events in temporal order.
+     */
+    private void assertMerged(String seriesName, int N) {
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        Iterator<Event> events = rseries.read();
+        long last = -1;
+        int i = 0;
+        while (events.hasNext()) {
+            Event e = events.next();
+            assertTrue(e.getTimestamp() > last);
+            assertEquals((int)e.getTimestamp(), e.get("x"));
+            last = e.getTimestamp();
+            i++;
+        }
+        assertEquals(N, i);
+    }
+
+    @Test
+    public void testWriteShards() {
+        String seriesName = "Sharded" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries shard0 = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .create();
+        WritableTimeSeries shard1 = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withWriteShard(1)
+                .openForWrite();
+        assertEquals(1, shard1.getWriteShard());
+        // the slots of two shards interleave in time
+        int N = L*4;
+        for (int i = 0; i < N; i += 2) {
+            shard0.write(i, new Object[] {i});
+            shard1.write(i+1, new Object[] {i+1});
+        }
+        shard0.close();
+        shard1.close();
+        
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        validateSeries(rseries, N, N/L, 0, N-1);
+        Iterator<Event> events = rseries.read();
+        int i = 0;
+        while (events.hasNext()) {
+            assertEquals(i, events.next().getTimestamp());
+            i++;
+        }
+        assertEquals(N, i);
+        
+        // each slot is read by its own index, which is not contiguous
+        List<Integer> slotIndices = rseries.getSlotIndices();
+        assertEquals(N/L, slotIndices.size());
+        i = 0;
+        for (int slotIndex : slotIndices) {
+            events = rseries.readBySlot(slotIndex);
+            while (events.hasNext()) {
+                events.next();
+                i++;
+            }
+        }
+        assertEquals(N, i);
+    }
+
+    @Test
+    public void testEventCursor() {
+        String seriesName = "Cursor" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER", "y DOUBLE", "s STRING")
+                .withSlotEventLimit(L)
+                .create();
+        int N = L*3+5;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i, i/2.0, i%2 == 0 ? null : "odd"});
+        }
+        wseries.close();
+        
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        EventField.DoubleField y = rseries.getEventDefinition().doubleField("y");
+        EventCursor cursor = rseries.cursor();
+        int i = 0;
+        while (cursor.next()) {
+            assertEquals(i, cursor.getTimestamp());
+            assertEquals(i, cursor.getInt("x"));
+            assertEquals(i/2.0, cursor.getDouble(y), 0);
+            assertEquals(i%2 == 0, cursor.isNull("s"));
+            assertEquals(i%2 == 0 ? null : "odd", cursor.getString("s"));
+            i++;
+        }
+        assertEquals(N, i);
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testReadProjection() {
+        String seriesName = "Projection" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER", "y DOUBLE", "s STRING")
+                .withSlotEventLimit(L)
+                .withCompactSlots()
+                .create();
+        int N = L*2+7;
+        for (int i = 0; i < N; i++) {
+            wseries.write(1000L*i, new Object[] {i, i/10.0, "s" + i%3});
+        }
+        wseries.close();
+        
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        Iterator<Event> events = rseries.readByTime(-1, -1, "y");
+        int i = 0;
+        while (events.hasNext()) {
+            Event e = events.next();
+            assertEquals(1000L*i, e.getTimestamp());
+            assertNull(e.get("x"));
+            assertEquals(i/10.0, e.get("y"));
+            assertNull(e.get("s"));
+            i++;
+        }
+        assertEquals(N, i);
+        
+        EventCursor cursor = rseries.cursor(-1, -1, "s");
+        i = 0;
+        while (cursor.next()) {
+            assertEquals("s" + i%3, cursor.getString("s"));
+            try {
+                cursor.getInt("x");
+                fail("expected property not in projection to be unreadable");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+            i++;
+        }
+        assertEquals(N, i);
+    }
+
+    @Test
+    public void testSlotCache() {
+        String seriesName = "SlotCache" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .create();
+        int N = L*3+5;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i});
+        }
+        wseries.close();
+        
+        SlotCache cache = new SlotCache(1024*1024);
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withSlotCache(cache)
+                .openForRead();
+        for (int pass = 0; pass < 2; pass++) {
+            Iterator<Event> events = rseries.read();
+            int i = 0;
+            while (events.hasNext()) {
+                assertEquals(i, events.next().get("x"));
+                i++;
+            }
+            assertEquals(N, i);
+        }
+        // full slots are cached on first pass, partial slot is never cached
+        assertEquals(3, cache.size());
+        assertEquals(3, cache.getStats().get(SlotCache.HIT));
+        assertEquals(5, cache.getStats().get(SlotCache.MISS));
+        
+        cache.setCapacity(cache.getByteSize() - 1);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getStats().get(SlotCache.EVICTION));
+    }
+
+    @Test
+    public void testSlotCacheOfSlotsFullBySize() {
+        String seriesName = "SlotCacheBySize" + System.currentTimeMillis();
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(100)
+                .withSlotByteSize(120, 1)
+                .create();
+        // each event is estimated at 8+4 bytes, so a slot holds 10 events
+        int N = 35;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i});
+        }
+        wseries.close();
+        assertEquals(4, wseries.getSlotCount());
+
+        SlotCache cache = new SlotCache(1024*1024);
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withSlotCache(cache)
+                .openForRead();
+        for (int pass = 0; pass < 2; pass++) {
+            assertEquals(N, count(rseries.read()));
+        }
+        // slots followed by a later slot are sealed, the last one is not
+        assertEquals(3, cache.size());
+        assertEquals(3, cache.getStats().get(SlotCache.HIT));
+    }
+
+    @Test
+    public void testReadAhead() {
+        String seriesName = "ReadAhead" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .create();
+        int N = L*20+5;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i});
+        }
+        wseries.close();
+        
+        for (int depth : new int[] {0, 1, 4}) {
+            ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                    .withSeriesURL(storeURL + seriesName)
+                    .withSlotCache(null)
+                    .withReadAhead(depth)
+                    .openForRead();
+            Iterator<Event> events = rseries.read();
+            int i = 0;
+            while (events.hasNext()) {
+                assertEquals(i, events.next().get("x"));
+                i++;
+            }
+            assertEquals(N, i);
+            
+            EventCursor cursor = rseries.cursor();
+            i = 0;
+            while (cursor.next()) {
+                assertEquals(i, cursor.getInt("x"));
+                i++;
+            }
+            assertEquals(N, i);
+        }
+    }
+
+    @Test
+    public void testSlotDirectoryRefresh() {
+        String seriesName = "Directory" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .create();
+        int N = L*2+5;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i});
+        }
+        wseries.close();
+        
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withSlotCache(null)
+                .openForRead();
+        rseries.setDirectoryRefreshInterval(0);
+        assertEquals(N, count(rseries.read()));
+        
+        wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForWrite();
+        for (int i = N; i < 2*N; i++) {
+            wseries.write(i, new Object[] {i});
+        }
+        wseries.close();
+        
+        Iterator<Event> events = rseries.read();
+        int i = 0;
+        while (events.hasNext()) {
+            assertEquals(i, events.next().get("x"));
+            i++;
+        }
+        assertEquals(2*N, i);
+    }
+    
+    private static int count(Iterator<?> iterator) {
+        int n = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            n++;
+        }
+        return n;
+    }
+
+    @Test
+    public void testExactTimeRange() {
+        String seriesName = "TimeRange" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER", "s STRING")
+                .withSlotEventLimit(L)
+                .create();
+        int N = L*3+5;
+        for (int i = 0; i < N; i++) {
+            wseries.write(10L*i, new Object[] {i, i%2 == 0 ? "even" : "odd"});
+        }
+        wseries.close();
+        
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        // range spans the boundary of first and second slot
+        Iterator<Event> events = rseries.readByTime(55, 123);
+        for (int i = 6; i <= 12; i++) {
+            assertTrue(events.hasNext());
+            assertEquals(i, events.next().get("x"));
+        }
+        assertFalse(events.hasNext());
+        
+        // range lies within a slot
+        events = rseries.readByTime(31, 49);
+        assertEquals(4, events.next().get("x"));
+        assertFalse(events.hasNext());
+        
+        EventCursor cursor = rseries.cursor(55, 123);
+        int n = 0;
+        while (cursor.next()) {
+            assertEquals(60 + 10*n, cursor.getTimestamp());
+            n++;
+        }
+        assertEquals(7, n);
+        
+        events = rseries.readWhereEquals("s", "odd", 55, 123);
+        for (int i = 7; i <= 11; i += 2) {
+            assertEquals(i, events.next().get("x"));
+        }
+        assertFalse(events.hasNext());
+    }
+
+    @Test
+    public void testOverlappingSlotIsNotFlushed() {
+        String seriesName = "Overlap" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .create();
+        // a second writer of the same shard loads its index before any slot is flushed
+        WritableTimeSeries other = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForWrite();
+        try {
+            for (int i = 0; i < L; i++) {
+                wseries.write(i, new Object[] {i});
+            }
+            wseries.flush(false);
+            SlotIntervalIndex intervals = wseries.getSlotIntervals();
+            assertEquals(1, intervals.size());
+        
+            // a slot that overlaps a flushed slot is rejected by the index
+            Slot slot = wseries.emptySlot(1000);
+            slot.insertEvent(wseries.newEvent(3, new Object[] {3}));
+            slot.insertEvent(wseries.newEvent(4, new Object[] {4}));
+            try {
+                slot.flush();
+                fail("expected error for overlapping slot " + slot);
+            } catch (RuntimeException ex) {
+                // expected
+            }
+            assertEquals(1, intervals.size());
+        
+            // a slot claimed in the index but overlapping in the store is released
+            other.setOverlapCheckStrict(true);
+            slot = other.emptySlot(1000);
+            slot.insertEvent(other.newEvent(3, new Object[] {3}));
+            slot.insertEvent(other.newEvent(4, new Object[] {4}));
+            try {
+                slot.flush();
+                fail("expected error for overlapping slot " + slot);
+            } catch (RuntimeException ex) {
+                // expected
+            }
+            assertEquals(0, other.getSlotIntervals().size());
+            assertNull(other.getSlotIntervals().putIfDisjoint(1000, 20, 30));
+            wseries.close();
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testEventFieldHandles() {
+        String seriesName = "Handles" + System.currentTimeMillis();
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER", "y DOUBLE", "z LONG", "s STRING")
+                .create();
+        EventMetadata meta = wseries.getEventDefinition();
+        EventField.IntField x = meta.intField("x");
+        EventField.DoubleField y = meta.doubleField("y");
+        EventField.LongField z = meta.longField("z");
+        EventField.StringField s = meta.stringField("s");
+        assertEquals("x", x.getName());
+        assertEquals(meta.asRecordDef().getFieldNames().indexOf("s"), s.getPosition());
+
+        int N = 10;
+        for (int i = 0; i < N; i++) {
+            Event e = wseries.newEvent(i, new Object[] {0, 0.0, 0L, "a"});
+            x.setInt(e, -i);
+            y.setDouble(e, i + 0.5);
+            z.setLong(e, Long.MAX_VALUE - i);
+            s.setString(e, i%2 == 0 ? null : "s" + i);
+            assertEquals(-i, x.getInt(e));
+            assertEquals(-i, e.get("x"));
+            assertEquals(i + 0.5, y.getDouble(e), 0);
+            assertEquals(Long.MAX_VALUE - i, z.getLong(e));
+            assertEquals(i%2 == 0, s.isNull(e));
+            assertEquals(i%2 == 0 ? null : "s" + i, s.getString(e));
+            wseries.write(e);
+        }
+        wseries.close();
+
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        meta = rseries.getEventDefinition();
+        x = meta.intField("x");
+        y = meta.doubleField("y");
+        z = meta.longField("z");
+        s = meta.stringField("s");
+        Iterator<Event> events = rseries.read();
+        int i = 0;
+        while (events.hasNext()) {
+            Event e = events.next();
+            assertEquals(-i, x.getInt(e));
+            assertEquals(i + 0.5, y.getDouble(e), 0);
+            assertEquals(Long.MAX_VALUE - i, z.getLong(e));
+            assertEquals(i%2 == 0 ? null : "s" + i, s.getString(e));
+            i++;
+        }
+        assertEquals(N, i);
+
+        // a handle of a different type or to a missing property is rejected
+        try {
+            meta.intField("y");
+            fail("expected to reject INTEGER handle to DOUBLE property");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            meta.stringField("x");
+            fail("expected to reject STRING handle to INTEGER property");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            meta.doubleField("w");
+            fail("expected to reject handle to missing property");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testFindSlots() {
+        String seriesName = "FindSlots" + System.currentTimeMillis();
+        int L = 10;
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("x INTEGER")
+                .withSlotEventLimit(L)
+                .create();
+        int N = 3*L + 5;
+        for (int i = 0; i < N; i++) {
+            wseries.write(i, new Object[] {i});
+        }
+        // three full slots are in the store, the last one only in memory
+        Slot current = wseries.getCurrentSlot();
+        assertEquals(N%L, current.getEventCount());
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        List<Integer> stored = rseries.getSlotIndices();
+        assertEquals(N/L, stored.size());
+        assertFalse(stored.contains(current.getIndex()));
+
+        int missing1 = current.getIndex() + 100;
+        int missing2 = current.getIndex() + 1000;
+        List<Integer> indices = new ArrayList<Integer>();
+        indices.add(missing1);
+        indices.addAll(stored);
+        indices.add(current.getIndex());
+        indices.add(missing2);
+
+        Map<Integer, Slot> slots = wseries.findSlots(indices, null);
+        assertEquals(stored.size() + 1, slots.size());
+        assertFalse(slots.containsKey(missing1));
+        assertFalse(slots.containsKey(missing2));
+        assertTrue(slots.get(current.getIndex()) == current);
+        for (int i = 0; i < stored.size(); i++) {
+            Slot slot = slots.get(stored.get(i));
+            assertNotNull(slot);
+            assertEquals(stored.get(i).intValue(), slot.getIndex());
+            assertEquals(L, slot.getEventCount());
+            assertEquals(i*L, slot.getTimeRange().getStartTime());
+        }
+
+        // a reader finds only the stored slots, first from the store and
+        // then from its cache
+        for (int k = 0; k < 2; k++) {
+            slots = rseries.findSlots(indices, null);
+            assertEquals(stored.size(), slots.size());
+            assertTrue(slots.keySet().containsAll(stored));
+        }
+        // a single missing index is read by its key
+        assertTrue(rseries.findSlots(
+                Collections.singletonList(missing1), null).isEmpty());
+        wseries.close();
+    }
+
     @Test
     public void testAddEvent() {
         String seriesName = "TestAddTimeSeries" + System.currentTimeMillis();
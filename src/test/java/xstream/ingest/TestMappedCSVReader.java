@@ -0,0 +1,304 @@
+package xstream.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import xstream.Event;
+import xstream.ReadableTimeSeries;
+import xstream.TimeSeriesBuilder;
+import xstream.WritableTimeSeries;
+import xstream.util.NoSQLURL;
+
+public class TestMappedCSVReader {
+    static NoSQLURL storeURL = new NoSQLURL("nosql://localhost:5000/kvstore/");
+    static String PATTERN = "yyyy-MM-dd'T'HH:mm:ss";
+
+    @Test
+    public void testParseLongSameAsLong() throws Exception {
+        String[] values = {"0", "-0", "7", "+7", "-123", "00042",
+                String.valueOf(Long.MAX_VALUE), String.valueOf(Long.MIN_VALUE),
+                "9223372036854775808", "-9223372036854775809",
+                "", "-", "+", "12a", "1.5", " 1"};
+        for (String s : values) {
+            assertParseLong(s);
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            assertParseLong(String.valueOf(random.nextLong() >> random.nextInt(64)));
+        }
+    }
+
+    @Test
+    public void testParseDoubleSameAsDouble() throws Exception {
+        String[] values = {"0", "-0", "0.0", "1", "-1", "+2.5", "3.14159",
+                "-0.05", ".5", "5.", "100", "0.000001", "123456789012345",
+                "1234567890123456789", "1e10", "-2.5E-3", "6.02e23", "1e-400",
+                "NaN", "-Infinity", "", "-", ".", "e5", "1.2.3", "12a"};
+        for (String s : values) {
+            assertParseDouble(s);
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            double d = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12));
+            assertParseDouble(String.valueOf(d));
+            assertParseDouble(String.format(Locale.ROOT, "%.6f", d));
+        }
+    }
+
+    @Test
+    public void testLineBoundary() throws Exception {
+        File file = File.createTempFile("boundary", ".csv");
+        file.deleteOnExit();
+        PrintStream out = new PrintStream(new FileOutputStream(file));
+        out.print("abc\ndefgh\nij");
+        out.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            assertEquals(4, MappedCSVReader.lineBoundary(channel, 0));
+            assertEquals(4, MappedCSVReader.lineBoundary(channel, 3));
+            // a position within a line moves to the start of next line
+            assertEquals(10, MappedCSVReader.lineBoundary(channel, 4));
+            assertEquals(10, MappedCSVReader.lineBoundary(channel, 7));
+            // the last line has no newline
+            assertEquals(12, MappedCSVReader.lineBoundary(channel, 10));
+            assertEquals(12, MappedCSVReader.lineBoundary(channel, 20));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a file in chunks much smaller than the file, so that chunks
+     * are cut in the middle of lines.
+     */
+    @Test
+    public void testChunksCutLines() throws Exception {
+        String seriesName = "MappedCSV" + System.currentTimeMillis();
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("t STRING", "x INTEGER", "y DOUBLE",
+                        "z LONG", "s STRING")
+                .withSlotEventLimit(100)
+                .create();
+        SimpleDateFormat format = new SimpleDateFormat(PATTERN);
+        long t0 = format.parse("2014-01-01T00:00:00").getTime();
+        int N = 500;
+        File file = File.createTempFile(seriesName, ".csv");
+        file.deleteOnExit();
+        PrintStream out = new PrintStream(new FileOutputStream(file));
+        out.print("t,x,y,z,s\r\n");
+        int errors = 0;
+        for (int i = 0; i < N; i++) {
+            // a line with an empty number is reported and skipped
+            String x = i%50 == 49 ? "" : String.valueOf(-i);
+            if (x.isEmpty()) errors++;
+            out.print(format.format(new Date(t0 + i*1000L)) + "," + x + ","
+                    + y(i) + "," + z(i) + "," + s(i) + (i%2 == 0 ? "\n" : "\r\n"));
+        }
+        out.close();
+
+        final int[] reported = {0};
+        MappedCSVReader reader = new MappedCSVReader(file, wseries)
+                .withDateFormat(PATTERN)
+                .withHeaderLines(1)
+                .withTimestampFieldIndex(0)
+                .withChunkSize(1024)
+                .withParallelism(3);
+        reader.addObserver(new Observer() {
+            @Override
+            public void update(Observable o, Object msg) {
+                if (msg instanceof CSVReader.LoadError) reported[0]++;
+            }
+        });
+        reader.run();
+        assertEquals(errors, reported[0]);
+
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        Iterator<Event> events = rseries.read();
+        int i = 0;
+        int n = 0;
+        while (events.hasNext()) {
+            if (i%50 == 49) i++;
+            Event e = events.next();
+            n++;
+            assertEquals(t0 + i*1000L, e.getTimestamp());
+            assertEquals(format.format(new Date(t0 + i*1000L)), e.get("t"));
+            assertEquals(-i, e.get("x"));
+            assertEquals(Double.parseDouble(y(i)), e.get("y"));
+            assertEquals(Long.parseLong(z(i)), e.get("z"));
+            assertEquals(s(i), e.get("s"));
+            i++;
+        }
+        assertEquals(N - errors, n);
+    }
+
+    /**
+     * Reads a file whose lines are in reverse order in blocks that are cut
+     * by chunks, so that adjacent chunks overlap in time.
+     */
+    @Test
+    public void testOverlappingChunksAreMerged() throws Exception {
+        String seriesName = "MappedCSVOverlap" + System.currentTimeMillis();
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("t STRING", "x INTEGER")
+                .withSlotEventLimit(20)
+                .create();
+        SimpleDateFormat format = new SimpleDateFormat(PATTERN);
+        long t0 = format.parse("2014-01-01T00:00:00").getTime();
+        int B = 50;
+        int N = 20*B;
+        File file = File.createTempFile(seriesName, ".csv");
+        file.deleteOnExit();
+        PrintStream out = new PrintStream(new FileOutputStream(file));
+        out.print("t,x\n");
+        for (int i = 0; i < N; i++) {
+            int x = (i/B)*B + B - 1 - i%B;
+            out.print(format.format(new Date(t0 + x*1000L)) + "," + x + "\n");
+        }
+        out.close();
+
+        final int[] reported = {0};
+        final boolean[] finished = {false};
+        MappedCSVReader reader = new MappedCSVReader(file, wseries)
+                .withDateFormat(PATTERN)
+                .withHeaderLines(1)
+                .withTimestampFieldIndex(0)
+                .withChunkSize(1024)
+                .withParallelism(2);
+        reader.addObserver(new Observer() {
+            @Override
+            public void update(Observable o, Object msg) {
+                if (msg instanceof CSVReader.LoadError) reported[0]++;
+                if (msg instanceof CSVReader.LoadFinshed) finished[0] = true;
+            }
+        });
+        reader.run();
+        assertEquals(0, reported[0]);
+        assertTrue(finished[0]);
+
+        ReadableTimeSeries rseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .openForRead();
+        Iterator<Event> events = rseries.read();
+        int i = 0;
+        while (events.hasNext()) {
+            Event e = events.next();
+            assertEquals(t0 + i*1000L, e.getTimestamp());
+            assertEquals(i, e.get("x"));
+            i++;
+        }
+        assertEquals(N, i);
+    }
+
+    /**
+     * Events rejected by the series are reported, and the load finishes.
+     */
+    @Test
+    public void testRejectedEventsAreReported() throws Exception {
+        String seriesName = "MappedCSVRejected" + System.currentTimeMillis();
+        WritableTimeSeries wseries = new TimeSeriesBuilder()
+                .withSeriesURL(storeURL + seriesName)
+                .withFieldDefinitions("t STRING", "x INTEGER")
+                .withUniformInterval(1000)
+                .create();
+        SimpleDateFormat format = new SimpleDateFormat(PATTERN);
+        long t0 = format.parse("2014-01-01T00:00:00").getTime();
+        File file = File.createTempFile(seriesName, ".csv");
+        file.deleteOnExit();
+        PrintStream out = new PrintStream(new FileOutputStream(file));
+        out.print("t,x\n");
+        // a uniform series rejects the gap after the tenth event
+        for (int i = 0; i < 20; i++) {
+            int x = i < 10 ? i : i + 1;
+            out.print(format.format(new Date(t0 + x*1000L)) + "," + x + "\n");
+        }
+        out.close();
+
+        final int[] reported = {0};
+        final boolean[] finished = {false};
+        MappedCSVReader reader = new MappedCSVReader(file, wseries)
+                .withDateFormat(PATTERN)
+                .withHeaderLines(1)
+                .withTimestampFieldIndex(0);
+        reader.addObserver(new Observer() {
+            @Override
+            public void update(Observable o, Object msg) {
+                if (msg instanceof CSVReader.LoadError) reported[0]++;
+                if (msg instanceof CSVReader.LoadFinshed) finished[0] = true;
+            }
+        });
+        reader.run();
+        assertTrue(reported[0] > 0);
+        assertTrue(finished[0]);
+    }
+
+    private static String y(int i) {
+        switch (i%3) {
+        case 0:  return "-" + i + ".25";
+        case 1:  return i + "e-2";
+        default: return "-1.5E" + i%5;
+        }
+    }
+
+    private static String z(int i) {
+        return i%2 == 0 ? String.valueOf(Long.MIN_VALUE + i) : "+" + i;
+    }
+
+    private static String s(int i) {
+        return i%4 == 0 ? "" : "s" + i;
+    }
+
+    private static void assertParseLong(String s) throws Exception {
+        ByteBuffer buf = ByteBuffer.wrap(("," + s + ",").getBytes("US-ASCII"));
+        long expected;
+        try {
+            expected = Long.parseLong(s);
+        } catch (NumberFormatException ex) {
+            try {
+                MappedCSVReader.parseLong(buf, 1, buf.limit()-1);
+                fail("expected to fail to parse [" + s + "]");
+            } catch (NumberFormatException expectedError) {
+            }
+            return;
+        }
+        assertEquals(s, expected, MappedCSVReader.parseLong(buf, 1, buf.limit()-1));
+    }
+
+    private static void assertParseDouble(String s) throws Exception {
+        ByteBuffer buf = ByteBuffer.wrap(("," + s + ",").getBytes("US-ASCII"));
+        double expected;
+        try {
+            expected = Double.parseDouble(s);
+        } catch (NumberFormatException ex) {
+            try {
+                MappedCSVReader.parseDouble(buf, 1, buf.limit()-1);
+                fail("expected to fail to parse [" + s + "]");
+            } catch (NumberFormatException expectedError) {
+            }
+            return;
+        }
+        double actual = MappedCSVReader.parseDouble(buf, 1, buf.limit()-1);
+        assertEquals(s, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+}
@@ -0,0 +1,47 @@
+package xstream.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TestTimestampParser {
+    static String PATTERN = "yyyy-MM-dd'T'HH:mm:ss";
+
+    @Test
+    public void testParseSameAsDateFormat() throws Exception {
+        for (String zone : new String[] {"UTC", "America/New_York", "Europe/Berlin"}) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            TimestampParser parser = new TimestampParser(PATTERN, timeZone);
+            SimpleDateFormat format = new SimpleDateFormat(PATTERN);
+            format.setTimeZone(timeZone);
+            // hourly over a year covers the change of daylight saving time
+            long start = format.parse("2014-01-01T00:00:00").getTime();
+            for (long t = start; t < start + 366*24*3600*1000L; t += 3599*1000L) {
+                String s = format.format(new Date(t));
+                assertEquals(s, format.parse(s).getTime(), parser.parse(s));
+                ByteBuffer buf = ByteBuffer.wrap((" " + s + ",").getBytes("US-ASCII"));
+                assertEquals(s, parser.parse(s), parser.parse(buf, 1, buf.limit()-1));
+            }
+        }
+    }
+
+    @Test
+    public void testIrregularInput() throws Exception {
+        TimestampParser parser = new TimestampParser(PATTERN);
+        SimpleDateFormat format = new SimpleDateFormat(PATTERN);
+        String s = "2014-2-3T1:05:00";
+        assertEquals(format.parse(s).getTime(), parser.parse(s));
+        try {
+            parser.parse("not a time");
+            fail("expected to fail to parse");
+        } catch (ParseException ex) {
+        }
+    }
+}